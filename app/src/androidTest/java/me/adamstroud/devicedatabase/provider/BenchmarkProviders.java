@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+
+/**
+ * Creates {@link DevicesProvider} instances over benchmark databases, so
+ * that benchmarks never touch the app's own data.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public final class BenchmarkProviders {
+    private BenchmarkProviders() {
+        // no-op
+    }
+
+    /**
+     * Creates a provider over a new, empty database.
+     *
+     * @param databaseName The file name of the database. Any existing
+     *                     database with this name is deleted first.
+     */
+    public static DevicesProvider create(String databaseName) {
+        final Context context = InstrumentationRegistry.getTargetContext();
+
+        context.deleteDatabase(databaseName);
+
+        final DevicesProvider provider =
+                new DevicesProvider(new DevicesOpenHelper(context,
+                        databaseName));
+
+        final ProviderInfo info = new ProviderInfo();
+        info.authority = DevicesContract.AUTHORITY;
+        provider.attachInfo(context, info);
+
+        return provider;
+    }
+
+    /**
+     * @return The ID of the new manufacturer.
+     */
+    public static long insertManufacturer(DevicesProvider provider,
+                                          String shortName) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+
+        final Uri uri =
+                provider.insert(DevicesContract.Manufacturer.CONTENT_URI,
+                        values);
+
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Inserts a manufacturer and the given number of its devices.
+     *
+     * @return The ID of the manufacturer.
+     */
+    public static long insertDevices(DevicesProvider provider,
+                                     String shortName,
+                                     int deviceCount) {
+        final long manufacturerId = insertManufacturer(provider, shortName);
+
+        provider.bulkInsert(DevicesContract.Device.CONTENT_URI,
+                newDevices(manufacturerId, deviceCount));
+
+        return manufacturerId;
+    }
+
+    /**
+     * @return Device values with distinct models.
+     */
+    public static ContentValues[] newDevices(long manufacturerId, int count) {
+        final ContentValues[] values = new ContentValues[count];
+
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(DevicesContract.Device.MODEL,
+                    String.format("Model %06d", i));
+
+            values[i].put(DevicesContract.Device.NICKNAME, "Device " + i);
+            values[i].put(DevicesContract.Device.MEMORY_MB, 512 + (i % 8) * 256);
+            values[i].put(DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                    4.0 + (i % 30) / 10.0);
+
+            values[i].put(DevicesContract.Device.MANUFACTURER_ID,
+                    manufacturerId);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link DevicesProvider#bulkInsert} with inserting the same rows
+ * one at a time through insert(), which is what ContentProvider's default
+ * bulkInsert does. The results are logged under the class name:
+ *
+ * <pre>adb logcat -s BulkInsertBenchmark</pre>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmark {
+    private static final String TAG = BulkInsertBenchmark.class.getSimpleName();
+    private static final String DB_NAME = "bulk-insert-benchmark.db";
+
+    @Test
+    public void insert1k() {
+        compare(1000);
+    }
+
+    @Test
+    public void insert10k() {
+        compare(10000);
+    }
+
+    @Test
+    public void insert100k() {
+        compare(100000);
+    }
+
+    private static void compare(int rowCount) {
+        final long perRowNanos = timePerRowInsert(rowCount);
+        final long bulkNanos = timeBulkInsert(rowCount);
+
+        Log.i(TAG, String.format("%d rows: insert() %d ms (%.0f rows/s), "
+                        + "bulkInsert() %d ms (%.0f rows/s), %.1fx",
+                rowCount,
+                perRowNanos / 1000000,
+                rowsPerSecond(rowCount, perRowNanos),
+                bulkNanos / 1000000,
+                rowsPerSecond(rowCount, bulkNanos),
+                (double) perRowNanos / bulkNanos));
+    }
+
+    private static long timePerRowInsert(int rowCount) {
+        final DevicesProvider provider = BenchmarkProviders.create(DB_NAME);
+        final ContentValues[] values = newDevices(provider, rowCount);
+        final long startNanos = System.nanoTime();
+
+        for (ContentValues rowValues : values) {
+            provider.insert(DevicesContract.Device.CONTENT_URI, rowValues);
+        }
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        assertEquals(rowCount, countDevices(provider));
+        provider.shutdown();
+        return elapsedNanos;
+    }
+
+    private static long timeBulkInsert(int rowCount) {
+        final DevicesProvider provider = BenchmarkProviders.create(DB_NAME);
+        final ContentValues[] values = newDevices(provider, rowCount);
+        final long startNanos = System.nanoTime();
+
+        assertEquals(rowCount,
+                provider.bulkInsert(DevicesContract.Device.CONTENT_URI,
+                        values));
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        provider.shutdown();
+        return elapsedNanos;
+    }
+
+    /**
+     * Inserts the manufacturer of the devices, which is not timed.
+     */
+    private static ContentValues[] newDevices(DevicesProvider provider,
+                                              int rowCount) {
+        final long manufacturerId =
+                BenchmarkProviders.insertManufacturer(provider, "Benchmark");
+
+        return BenchmarkProviders.newDevices(manufacturerId, rowCount);
+    }
+
+    private static int countDevices(DevicesProvider provider) {
+        final Cursor cursor =
+                provider.query(DevicesContract.Device.CONTENT_URI,
+                        new String[] {DevicesContract.Device._ID},
+                        null,
+                        null,
+                        null);
+
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * 1e9 / nanos;
+    }
+}
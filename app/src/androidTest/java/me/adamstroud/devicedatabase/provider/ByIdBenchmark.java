@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the by-ID Uris, which bind the ID and reuse compiled
+ * statements, with the table Uri and a selection that holds the ID as a
+ * literal, which compiles new SQL for every ID. The results are logged
+ * under the class name:
+ *
+ * <pre>adb logcat -s ByIdBenchmark</pre>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(AndroidJUnit4.class)
+public class ByIdBenchmark {
+    private static final String TAG = ByIdBenchmark.class.getSimpleName();
+    private static final String DB_NAME = "by-id-benchmark.db";
+    private static final int DEVICE_COUNT = 2000;
+
+    private DevicesProvider provider;
+    private long firstDeviceId;
+
+    @Before
+    public void setUp() {
+        provider = BenchmarkProviders.create(DB_NAME);
+        BenchmarkProviders.insertDevices(provider, "Benchmark", DEVICE_COUNT);
+
+        final Cursor cursor = provider.query(DevicesContract.Device.CONTENT_URI,
+                new String[] {"MIN(" + DevicesContract.Device._ID + ")"},
+                null,
+                null,
+                null);
+
+        try {
+            cursor.moveToFirst();
+            firstDeviceId = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void query() {
+        final int half = DEVICE_COUNT / 2;
+        final long literalStartNanos = System.nanoTime();
+
+        for (int i = 0; i < half; i++) {
+            assertEquals(1, countRows(DevicesContract.Device.CONTENT_URI,
+                    literalSelection(firstDeviceId + i)));
+        }
+
+        final long literalNanos = System.nanoTime() - literalStartNanos;
+        final long byIdStartNanos = System.nanoTime();
+
+        for (int i = half; i < DEVICE_COUNT; i++) {
+            assertEquals(1, countRows(deviceUri(firstDeviceId + i), null));
+        }
+
+        log("query", half, literalNanos, System.nanoTime() - byIdStartNanos);
+    }
+
+    @Test
+    public void update() {
+        final int half = DEVICE_COUNT / 2;
+        final ContentValues values = new ContentValues();
+        final long literalStartNanos = System.nanoTime();
+
+        for (int i = 0; i < half; i++) {
+            values.put(DevicesContract.Device.NICKNAME, "Literal " + i);
+            assertEquals(1, provider.update(DevicesContract.Device.CONTENT_URI,
+                    values,
+                    literalSelection(firstDeviceId + i),
+                    null));
+        }
+
+        final long literalNanos = System.nanoTime() - literalStartNanos;
+        final long byIdStartNanos = System.nanoTime();
+
+        for (int i = half; i < DEVICE_COUNT; i++) {
+            values.put(DevicesContract.Device.NICKNAME, "By ID " + i);
+            assertEquals(1, provider.update(deviceUri(firstDeviceId + i),
+                    values,
+                    null,
+                    null));
+        }
+
+        log("update", half, literalNanos, System.nanoTime() - byIdStartNanos);
+    }
+
+    @Test
+    public void delete() {
+        final int half = DEVICE_COUNT / 2;
+        final long literalStartNanos = System.nanoTime();
+
+        for (int i = 0; i < half; i++) {
+            assertEquals(1, provider.delete(DevicesContract.Device.CONTENT_URI,
+                    literalSelection(firstDeviceId + i),
+                    null));
+        }
+
+        final long literalNanos = System.nanoTime() - literalStartNanos;
+        final long byIdStartNanos = System.nanoTime();
+
+        for (int i = half; i < DEVICE_COUNT; i++) {
+            assertEquals(1, provider.delete(deviceUri(firstDeviceId + i),
+                    null,
+                    null));
+        }
+
+        log("delete", half, literalNanos, System.nanoTime() - byIdStartNanos);
+    }
+
+    private int countRows(Uri uri, String selection) {
+        final Cursor cursor = provider.query(uri,
+                new String[] {DevicesContract.Device.MODEL},
+                selection,
+                null,
+                null);
+
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri deviceUri(long id) {
+        return ContentUris.withAppendedId(DevicesContract.Device.CONTENT_URI,
+                id);
+    }
+
+    private static String literalSelection(long id) {
+        return DevicesContract.Device._ID + " = " + id;
+    }
+
+    private static void log(String operation,
+                            int count,
+                            long literalNanos,
+                            long byIdNanos) {
+        Log.i(TAG, String.format("%s x%d: literal selection %d us/op, "
+                        + "by-ID Uri %d us/op, %.1fx",
+                operation,
+                count,
+                literalNanos / count / 1000,
+                byIdNanos / count / 1000,
+                (double) literalNanos / byIdNanos));
+    }
+}
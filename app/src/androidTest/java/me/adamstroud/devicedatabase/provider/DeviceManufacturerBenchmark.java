@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares reading {@link DevicesContract.DeviceManufacturer} from the
+ * denormalized device_manufacturer table, the device/manufacturer join and
+ * the device-only query, for the whole list and page by page. The results
+ * are logged under the class name:
+ *
+ * <pre>adb logcat -s DeviceManufacturerBenchmark</pre>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceManufacturerBenchmark {
+    private static final String TAG =
+            DeviceManufacturerBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "device-manufacturer-benchmark.db";
+    private static final int MANUFACTURER_COUNT = 50;
+    private static final int DEVICES_PER_MANUFACTURER = 400;
+    private static final int DEVICE_COUNT =
+            MANUFACTURER_COUNT * DEVICES_PER_MANUFACTURER;
+
+    private static final int PAGE_SIZE = 50;
+    private static final int REPETITIONS = 5;
+
+    private static final String[] ALL_COLUMNS = {
+            DevicesContract.DeviceManufacturer.DEVICE_ID,
+            DevicesContract.DeviceManufacturer.MODEL,
+            DevicesContract.DeviceManufacturer.SHORT_NAME,
+            DevicesContract.DeviceManufacturer.MANUFACTURER_ID
+    };
+
+    private static final String[] DEVICE_COLUMNS = {
+            DevicesContract.DeviceManufacturer.DEVICE_ID,
+            DevicesContract.DeviceManufacturer.MODEL
+    };
+
+    private DevicesProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = BenchmarkProviders.create(DB_NAME);
+
+        for (int i = 0; i < MANUFACTURER_COUNT; i++) {
+            BenchmarkProviders.insertDevices(provider,
+                    "Manufacturer " + i,
+                    DEVICES_PER_MANUFACTURER);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @Test
+    public void fullList() {
+        compare("full list, all columns", ALL_COLUMNS, false);
+        compare("full list, device columns", DEVICE_COLUMNS, false);
+    }
+
+    @Test
+    public void pages() {
+        compare("pages, all columns", ALL_COLUMNS, true);
+        compare("pages, device columns", DEVICE_COLUMNS, true);
+    }
+
+    private void compare(String name, String[] projection, boolean paged) {
+        // Warms the page cache so that the first source is not penalized
+        time(DevicesProvider.DEVICE_MANUFACTURER_JOIN, projection, paged);
+
+        final long denormalizedNanos = time(DevicesProvider
+                .DEVICE_MANUFACTURER_DENORMALIZED,
+                projection,
+                paged);
+
+        final long joinNanos = time(DevicesProvider.DEVICE_MANUFACTURER_JOIN,
+                projection,
+                paged);
+
+        final long normalizedNanos = time(DevicesProvider
+                .DEVICE_MANUFACTURER_NORMALIZED,
+                projection,
+                paged);
+
+        Log.i(TAG, String.format("%s x%d rows: denormalized %d ms, "
+                        + "join %d ms, normalized %d ms",
+                name,
+                DEVICE_COUNT,
+                denormalizedNanos / REPETITIONS / 1000000,
+                joinNanos / REPETITIONS / 1000000,
+                normalizedNanos / REPETITIONS / 1000000));
+    }
+
+    private long time(int source, String[] projection, boolean paged) {
+        provider.setDeviceManufacturerSource(source);
+
+        final long startNanos = System.nanoTime();
+
+        for (int i = 0; i < REPETITIONS; i++) {
+            assertEquals(DEVICE_COUNT, paged
+                    ? readPages(projection)
+                    : readRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                            projection,
+                            null));
+        }
+
+        return System.nanoTime() - startNanos;
+    }
+
+    private int readPages(String[] projection) {
+        final String[] key = new String[2];
+        int rowCount = 0;
+        int pageRowCount;
+
+        do {
+            pageRowCount = readRows(DevicesContract
+                            .buildDeviceManufacturerPageUri(key[0],
+                                    (key[1] == null ? 0 : Long.parseLong(key[1])),
+                                    PAGE_SIZE),
+                    projection,
+                    key);
+
+            rowCount += pageRowCount;
+        } while (pageRowCount == PAGE_SIZE);
+
+        return rowCount;
+    }
+
+    /**
+     * Reads every column of every row, as a list would.
+     *
+     * @param key Receives the model and device ID of the last row, if not
+     *            null.
+     * @return The number of rows.
+     */
+    private int readRows(Uri uri, String[] projection, String[] key) {
+        final Cursor cursor = provider.query(uri,
+                projection,
+                null,
+                null,
+                null);
+
+        try {
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < projection.length; i++) {
+                    cursor.getString(i);
+                }
+            }
+
+            if (key != null && cursor.moveToLast()) {
+                key[0] = cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract
+                        .DeviceManufacturer
+                        .MODEL));
+
+                key[1] = cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract
+                        .DeviceManufacturer
+                        .DEVICE_ID));
+            }
+
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.widget;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares binding manufacturer rows with {@link CursorRowBinder} against
+ * looking up the column indexes and reading new strings on every bind, as
+ * the manufacturer list used to. Both the bind rate and the number of
+ * objects allocated per bind are logged under the class name:
+ *
+ * <pre>adb logcat -s CursorRowBinderBenchmark</pre>
+ *
+ * <p>Allocations are counted with {@link Debug#startAllocCounting()}, which
+ * only counts the allocations of the calling thread, so the binds are run
+ * on a single thread.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(AndroidJUnit4.class)
+public class CursorRowBinderBenchmark {
+    private static final String TAG =
+            CursorRowBinderBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 1000;
+    private static final int REPETITIONS = 20;
+
+    private static final String[] PROJECTION = {
+            DevicesContract.Manufacturer._ID,
+            DevicesContract.Manufacturer.LONG_NAME,
+            DevicesContract.Manufacturer.SHORT_NAME
+    };
+
+    // Positions in PROJECTION
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_LONG_NAME = 1;
+    private static final int COLUMN_SHORT_NAME = 2;
+
+    private SQLiteDatabase database;
+    private Cursor cursor;
+    private TextView longNameView;
+    private TextView shortNameView;
+
+    /**
+     * Keeps the bound IDs from being optimized away.
+     */
+    private long idSum;
+
+    @Before
+    public void setUp() {
+        // An in-memory database, so that the strings are read out of a
+        // cursor window as they are in the app
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE manufacturer ("
+                + DevicesContract.Manufacturer._ID
+                + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + DevicesContract.Manufacturer.SHORT_NAME + " TEXT, "
+                + DevicesContract.Manufacturer.LONG_NAME + " TEXT)");
+
+        final ContentValues values = new ContentValues();
+
+        database.beginTransaction();
+
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                values.put(DevicesContract.Manufacturer.SHORT_NAME, "M" + i);
+                values.put(DevicesContract.Manufacturer.LONG_NAME,
+                        "Manufacturer " + i);
+
+                database.insert("manufacturer", null, values);
+            }
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        cursor = database.query("manufacturer",
+                PROJECTION,
+                null,
+                null,
+                null,
+                null,
+                DevicesContract.Manufacturer.LONG_NAME);
+
+        // Fills the cursor window before anything is counted
+        cursor.getCount();
+
+        longNameView = new TextView(InstrumentationRegistry.getTargetContext());
+        shortNameView = new TextView(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        cursor.close();
+        database.close();
+    }
+
+    @Test
+    public void bind() {
+        final CursorRowBinder binder = new CursorRowBinder(PROJECTION);
+        final CharArrayBuffer longName = new CharArrayBuffer(64);
+        final CharArrayBuffer shortName = new CharArrayBuffer(16);
+
+        // Warms both paths so that neither pays for class loading or JIT
+        bindWithBinder(binder, longName, shortName);
+        bindWithLookups();
+
+        Debug.startAllocCounting();
+
+        try {
+            final Result binderResult =
+                    measure(binder, longName, shortName, true);
+
+            final Result lookupResult =
+                    measure(binder, longName, shortName, false);
+
+            Log.i(TAG, String.format("%d binds: binder %d binds/s, "
+                            + "%.2f allocations/bind; lookups %d binds/s, "
+                            + "%.2f allocations/bind",
+                    ROW_COUNT * REPETITIONS,
+                    binderResult.bindsPerSecond(),
+                    binderResult.allocationsPerBind(),
+                    lookupResult.bindsPerSecond(),
+                    lookupResult.allocationsPerBind()));
+
+            assertTrue(binderResult.allocationsPerBind()
+                    < lookupResult.allocationsPerBind());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        Log.d(TAG, "ID sum " + idSum);
+    }
+
+    private Result measure(CursorRowBinder binder,
+                           CharArrayBuffer longName,
+                           CharArrayBuffer shortName,
+                           boolean useBinder) {
+        Debug.resetThreadAllocCount();
+
+        final long startNanos = System.nanoTime();
+
+        for (int i = 0; i < REPETITIONS; i++) {
+            if (useBinder) {
+                bindWithBinder(binder, longName, shortName);
+            } else {
+                bindWithLookups();
+            }
+        }
+
+        return new Result(System.nanoTime() - startNanos,
+                Debug.getThreadAllocCount());
+    }
+
+    private void bindWithBinder(CursorRowBinder binder,
+                                CharArrayBuffer longName,
+                                CharArrayBuffer shortName) {
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            binder.setCursor(cursor);
+            binder.setText(COLUMN_LONG_NAME, longNameView, longName);
+            binder.setText(COLUMN_SHORT_NAME, shortNameView, shortName);
+            idSum += binder.getLong(COLUMN_ID);
+        }
+    }
+
+    private void bindWithLookups() {
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            longNameView.setText(cursor.getString(cursor
+                    .getColumnIndexOrThrow(DevicesContract
+                            .Manufacturer
+                            .LONG_NAME)));
+
+            shortNameView.setText(cursor.getString(cursor
+                    .getColumnIndexOrThrow(DevicesContract
+                            .Manufacturer
+                            .SHORT_NAME)));
+
+            idSum += cursor.getLong(cursor
+                    .getColumnIndexOrThrow(DevicesContract
+                            .Manufacturer
+                            ._ID));
+        }
+    }
+
+    private static class Result {
+        private final long nanos;
+        private final int allocations;
+
+        private Result(long nanos, int allocations) {
+            this.nanos = nanos;
+            this.allocations = allocations;
+        }
+
+        private long bindsPerSecond() {
+            return (long) ROW_COUNT * REPETITIONS * 1000000000L / nanos;
+        }
+
+        private double allocationsPerBind() {
+            return (double) allocations / (ROW_COUNT * REPETITIONS);
+        }
+    }
+}
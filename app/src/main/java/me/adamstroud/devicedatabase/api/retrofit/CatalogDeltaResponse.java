@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.api.retrofit;
+
+import java.util.List;
+
+import me.adamstroud.devicedatabase.model.Manufacturer;
+
+/**
+ * The response to the {@link DeviceService#getCatalogChanges(String)}
+ * request. Manufacturers that were added or changed are listed with only
+ * the devices that were added or changed, and deleted rows are listed by
+ * their natural key.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public class CatalogDeltaResponse {
+    private String watermark;
+    private List<Manufacturer> manufacturers;
+    private List<String> deletedManufacturers;
+    private List<DeletedDevice> deletedDevices;
+
+    /**
+     * @return The watermark to send with the next request.
+     */
+    public String getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+
+    public List<Manufacturer> getManufacturers() {
+        return manufacturers;
+    }
+
+    public void setManufacturers(List<Manufacturer> manufacturers) {
+        this.manufacturers = manufacturers;
+    }
+
+    /**
+     * @return The short names of the deleted manufacturers.
+     */
+    public List<String> getDeletedManufacturers() {
+        return deletedManufacturers;
+    }
+
+    public void setDeletedManufacturers(List<String> deletedManufacturers) {
+        this.deletedManufacturers = deletedManufacturers;
+    }
+
+    public List<DeletedDevice> getDeletedDevices() {
+        return deletedDevices;
+    }
+
+    public void setDeletedDevices(List<DeletedDevice> deletedDevices) {
+        this.deletedDevices = deletedDevices;
+    }
+
+    /**
+     * A tombstone for a device, identified by the short name of its
+     * manufacturer and its model.
+     */
+    public static class DeletedDevice {
+        private String shortName;
+        private String model;
+
+        public String getShortName() {
+            return shortName;
+        }
+
+        public void setShortName(String shortName) {
+            this.shortName = shortName;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+    }
+}
@@ -16,8 +16,12 @@
 
 package me.adamstroud.devicedatabase.api.retrofit;
 
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import rx.Observable;
 
 /**
@@ -31,4 +35,50 @@ public interface DeviceService {
 
     @GET("v2/570bbaf6110000b003d17e3a")
     Observable<ManufacturersAndDevicesResponse> rxGetManufacturersAndDevices();
+
+    /**
+     * Returns the same document as {@link #getManufacturersAndDevices()}
+     * without reading it, so that it can be hashed or parsed as it is
+     * downloaded. Note that debug builds log, and therefore buffer, the
+     * whole body.
+     *
+     * @param eTag The ETag of the copy that is held locally, or null.
+     * @param lastModified The Last-Modified date of the copy that is held
+     *                     locally, or null.
+     *
+     * @return A response with the 304 (Not Modified) status and no body if
+     *         the local copy is current.
+     */
+    @Streaming
+    @GET("v2/570bbaf6110000b003d17e3a")
+    Call<ResponseBody> downloadManufacturersAndDevices(@Header("If-None-Match") String eTag,
+                                                       @Header("If-Modified-Since") String lastModified);
+
+    /**
+     * Returns the rows that were added, changed or deleted since the
+     * given watermark, which is taken from the previous response. The
+     * server responds with 410 (Gone) if it no longer holds the changes
+     * since the watermark, in which case a full sync is needed.
+     */
+    @GET("v2/570bbaf6110000b003d17e3a/changes")
+    Call<CatalogDeltaResponse> getCatalogChanges(@Query("since") String watermark);
+
+    /**
+     * The response header of {@link #getCatalogPage(int, int)} that holds
+     * the number of pages.
+     */
+    String HEADER_PAGE_COUNT = "X-Page-Count";
+
+    /**
+     * Returns one page of the catalog, in the same format as
+     * {@link #getManufacturersAndDevices()}, without reading it. Each page
+     * holds up to the given number of manufacturers along with all of
+     * their devices.
+     *
+     * @param page The index of the page, starting at 0.
+     */
+    @Streaming
+    @GET("v2/570bbaf6110000b003d17e3a")
+    Call<ResponseBody> getCatalogPage(@Query("page") int page,
+                                      @Query("page_size") int pageSize);
 }
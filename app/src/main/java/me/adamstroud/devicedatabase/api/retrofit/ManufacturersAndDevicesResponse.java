@@ -26,8 +26,22 @@ import me.adamstroud.devicedatabase.model.Manufacturer;
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
 public class ManufacturersAndDevicesResponse {
+    private String watermark;
     private List<Manufacturer> manufacturers;
 
+    /**
+     * @return The watermark to send with the first
+     *         {@link DeviceService#getCatalogChanges(String)} request, or
+     *         null if the server does not support delta syncs.
+     */
+    public String getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+
     public List<Manufacturer> getManufacturers() {
         return manufacturers;
     }
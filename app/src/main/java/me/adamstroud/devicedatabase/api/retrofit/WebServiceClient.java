@@ -40,6 +40,7 @@ public class WebServiceClient {
 
     private static WebServiceClient instance = new WebServiceClient();
 
+    private final Gson gson;
     private final DeviceService service;
 
     public static WebServiceClient getInstance() {
@@ -47,7 +48,7 @@ public class WebServiceClient {
     }
 
     private WebServiceClient() {
-        final Gson gson = new GsonBuilder()
+        gson = new GsonBuilder()
                 .setFieldNamingPolicy(FieldNamingPolicy
                         .LOWER_CASE_WITH_UNDERSCORES)
                 .create();
@@ -81,4 +82,12 @@ public class WebServiceClient {
     public DeviceService getService() {
         return service;
     }
+
+    /**
+     * @return The Gson instance that maps the web API's JSON onto the
+     *         model classes, for reading responses that are streamed.
+     */
+    public Gson getGson() {
+        return gson;
+    }
 }
@@ -16,12 +16,9 @@
 
 package me.adamstroud.devicedatabase.device;
 
-import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.databinding.ObservableField;
@@ -30,26 +27,32 @@ import android.os.Bundle;
 import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.MenuItem;
 import android.view.View;
 
 import me.adamstroud.devicedatabase.R;
 import me.adamstroud.devicedatabase.databinding.ActivityAddDeviceBinding;
 import me.adamstroud.devicedatabase.manufacturer.ManufacturerListActivity;
+import me.adamstroud.devicedatabase.provider.ContentQueries;
 import me.adamstroud.devicedatabase.provider.DevicesContract;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * Allows the user to add a device to the app.
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
-public class AddDeviceActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class AddDeviceActivity extends AppCompatActivity {
+    private static final String TAG = AddDeviceActivity.class.getSimpleName();
     private static final int REQUEST_MANUFACTURER_LIST = 1;
-    private static final String LOADER_ARG_MANUFACTURER_URI = "manufacturerUri";
-    private static final int LOADER_ID_MANUFACTURER = 1;
 
     private Toolbar toolbar;
     private long manufacturerId;
+    private Uri manufacturerUri;
+    private Subscription subscription;
     private ObservableDevice observableDevice = new ObservableDevice();
     private ActivityAddDeviceBinding binding;
 
@@ -81,34 +84,78 @@ public class AddDeviceActivity extends AppCompatActivity implements LoaderManage
         super.onActivityResult(requestCode, resultCode, data);
 
         if (requestCode == REQUEST_MANUFACTURER_LIST && resultCode == RESULT_OK) {
-            Uri manufacturerUri = data.getParcelableExtra(ManufacturerListActivity.EXTRA_MANUFACTURER_URI);
+            manufacturerUri = data.getParcelableExtra(ManufacturerListActivity.EXTRA_MANUFACTURER_URI);
             manufacturerId = ContentUris.parseId(manufacturerUri);
-            Bundle args = new Bundle();
-            args.putParcelable(LOADER_ARG_MANUFACTURER_URI, manufacturerUri);
-            getLoaderManager().initLoader(LOADER_ID_MANUFACTURER, args, this);
+            queryManufacturer();
         }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return new CursorLoader(this,
-                args.<Uri>getParcelable(LOADER_ARG_MANUFACTURER_URI),
-                new String[] {DevicesContract.Manufacturer.LONG_NAME},
-                null,
-                null,
-                null);
+    protected void onStart() {
+        super.onStart();
+        queryManufacturer();
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            binding.deviceManufacturer.setText(data.getString(data.getColumnIndexOrThrow(DevicesContract.Manufacturer.LONG_NAME)));
+    protected void onStop() {
+        super.onStop();
+
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // no-op
+    /**
+     * Shows the name of the selected manufacturer, replacing the query for
+     * the previous one.
+     */
+    private void queryManufacturer() {
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+
+        if (manufacturerUri == null) {
+            return;
+        }
+
+        subscription = ContentQueries
+                .query(getContentResolver(),
+                        manufacturerUri,
+                        new String[] {DevicesContract.Manufacturer.LONG_NAME},
+                        null,
+                        null,
+                        null,
+                        false,
+                        ContentQueries.DEFAULT_DEBOUNCE_MS)
+                .compose(ContentQueries.observeOn(AndroidSchedulers.mainThread()))
+                .subscribe(new Subscriber<Cursor>() {
+                    @Override
+                    public void onCompleted() {
+                        // no-op
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Could not query manufacturer", e);
+                    }
+
+                    @Override
+                    public void onNext(Cursor data) {
+                        if (data == null) {
+                            return;
+                        }
+
+                        try {
+                            if (data.moveToFirst()) {
+                                binding.deviceManufacturer.setText(data.getString(data.getColumnIndexOrThrow(DevicesContract.Manufacturer.LONG_NAME)));
+                            }
+                        } finally {
+                            data.close();
+                        }
+                    }
+                });
     }
 
     private static class ObservableDevice {
@@ -16,10 +16,7 @@
 
 package me.adamstroud.devicedatabase.device;
 
-import android.app.LoaderManager;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.databinding.ObservableField;
@@ -33,25 +30,32 @@ import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.ShareActionProvider;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import me.adamstroud.devicedatabase.R;
 import me.adamstroud.devicedatabase.databinding.ActivityDeviceDetailBinding;
+import me.adamstroud.devicedatabase.provider.ContentQueries;
 import me.adamstroud.devicedatabase.provider.DevicesContract;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * Shows the device properties to the user.
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
-public class DeviceDetailActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
-    public static final String EXTRA_DEVICE_URI = "deviceUri";
+public class DeviceDetailActivity extends AppCompatActivity {
+    private static final String TAG =
+            DeviceDetailActivity.class.getSimpleName();
 
-    private static final int ID_DEVICE = 1;
+    public static final String EXTRA_DEVICE_URI = "deviceUri";
 
     private Uri deviceUri;
+    private Subscription subscription;
     private CoordinatorLayout coordinatorLayout;
     private Intent shareIntent;
     private ActivityDeviceDetailBinding binding;
@@ -68,8 +72,55 @@ public class DeviceDetailActivity extends AppCompatActivity implements LoaderMan
         setSupportActionBar(toolbar);
 
         deviceUri = getIntent().getExtras().getParcelable(EXTRA_DEVICE_URI);
+    }
 
-        getLoaderManager().initLoader(ID_DEVICE, null, this);
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        subscription = ContentQueries
+                .query(getContentResolver(),
+                        deviceUri,
+                        new String[] {DevicesContract.Device.MODEL,
+                                DevicesContract.Device.NICKNAME,
+                                DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                                DevicesContract.Device.MEMORY_MB,
+                                DevicesContract.Device._ID},
+                        null,
+                        null,
+                        null,
+                        // Only this row, rather than the whole table
+                        false,
+                        ContentQueries.DEFAULT_DEBOUNCE_MS)
+                .compose(ContentQueries.observeOn(AndroidSchedulers.mainThread()))
+                .subscribe(new Subscriber<Cursor>() {
+                    @Override
+                    public void onCompleted() {
+                        // no-op
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Could not query device", e);
+                    }
+
+                    @Override
+                    public void onNext(Cursor cursor) {
+                        if (cursor != null) {
+                            try {
+                                bindDevice(cursor);
+                            } finally {
+                                cursor.close();
+                            }
+                        }
+                    }
+                });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        subscription.unsubscribe();
     }
 
     @Override
@@ -104,23 +155,8 @@ public class DeviceDetailActivity extends AppCompatActivity implements LoaderMan
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return new CursorLoader(this,
-                deviceUri,
-                new String[] {DevicesContract.Device.MODEL,
-                        DevicesContract.Device.NICKNAME,
-                        DevicesContract.Device.DISPLAY_SIZE_INCHES,
-                        DevicesContract.Device.MEMORY_MB,
-                        DevicesContract.Device._ID},
-                null,
-                null,
-                null);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
+    private void bindDevice(Cursor data) {
+        if (data.moveToFirst()) {
             ObservableDevice observableDevice = binding.getDevice();
 
             observableDevice
@@ -161,11 +197,6 @@ public class DeviceDetailActivity extends AppCompatActivity implements LoaderMan
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // no-op
-    }
-
     public void onActionShareClick(MenuItem menuItem) {
         Intent intent = new Intent(Intent.ACTION_SEND);
         intent.setType(getContentResolver().getType(DevicesContract.Device.CONTENT_URI));
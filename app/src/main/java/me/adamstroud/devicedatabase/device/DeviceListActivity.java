@@ -18,29 +18,24 @@ package me.adamstroud.devicedatabase.device;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.app.LoaderManager;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.OperationApplicationException;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.text.TextUtils;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.android.volley.Response;
@@ -62,6 +57,7 @@ import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import rx.subjects.BehaviorSubject;
 import rx.subscriptions.CompositeSubscription;
 
 /**
@@ -69,19 +65,26 @@ import rx.subscriptions.CompositeSubscription;
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
-public class DeviceListActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DeviceListActivity extends AppCompatActivity {
     private static final String TAG =
             DeviceListActivity.class.getSimpleName();
 
     private static final String VOLLEY_TAG =
             DeviceListActivity.class.getCanonicalName();
 
-    private static final int LOADER_ID_DEVICES = 1;
-
     private RecyclerView recyclerView;
     private TextView empty;
+    private DevicePagingAdapter adapter;
+    private DeviceSearchAdapter searchAdapter;
     private CompositeSubscription compositeSubscription;
 
+    /**
+     * The text in the search box. The latest text is kept so that the
+     * search is run again when the activity is restarted.
+     */
+    private final BehaviorSubject<String> searchTexts =
+            BehaviorSubject.create("");
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -183,6 +186,34 @@ public class DeviceListActivity extends AppCompatActivity implements LoaderManag
             }
         });
 
+        final SearchView searchView = (SearchView) MenuItemCompat
+                .getActionView(toolbar.getMenu().findItem(R.id.action_search));
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // The device list is shown until there is something to
+                // search for
+                final RecyclerView.Adapter<?> shownAdapter =
+                        (TextUtils.getTrimmedLength(newText) == 0
+                                ? adapter
+                                : searchAdapter);
+
+                if (recyclerView.getAdapter() != shownAdapter) {
+                    recyclerView.setAdapter(shownAdapter);
+                    updateEmptyView();
+                }
+
+                searchTexts.onNext(newText);
+                return true;
+            }
+        });
+
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -195,10 +226,32 @@ public class DeviceListActivity extends AppCompatActivity implements LoaderManag
         recyclerView = (RecyclerView) findViewById(R.id.recycler_view);
         empty = (TextView) findViewById(R.id.empty);
 
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        recyclerView.setAdapter(new DeviceCursorAdapter());
+        adapter = new DevicePagingAdapter(this);
+        searchAdapter = new DeviceSearchAdapter();
 
-        getLoaderManager().initLoader(LOADER_ID_DEVICES, null, this);
+        final RecyclerView.AdapterDataObserver emptyViewObserver =
+                new RecyclerView.AdapterDataObserver() {
+                    @Override
+                    public void onChanged() {
+                        updateEmptyView();
+                    }
+
+                    @Override
+                    public void onItemRangeInserted(int positionStart, int itemCount) {
+                        updateEmptyView();
+                    }
+
+                    @Override
+                    public void onItemRangeRemoved(int positionStart, int itemCount) {
+                        updateEmptyView();
+                    }
+                };
+
+        adapter.registerAdapterDataObserver(emptyViewObserver);
+        searchAdapter.registerAdapterDataObserver(emptyViewObserver);
+
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setAdapter(adapter);
 
         Account account = new Account("SyncAccount", "stubAuthenticator");
 
@@ -241,142 +294,37 @@ public class DeviceListActivity extends AppCompatActivity implements LoaderManag
     }
 
 
+    private void updateEmptyView() {
+        if (recyclerView.getAdapter().getItemCount() == 0) {
+            empty.setVisibility(View.VISIBLE);
+            recyclerView.setVisibility(View.GONE);
+        } else {
+            empty.setVisibility(View.GONE);
+            recyclerView.setVisibility(View.VISIBLE);
+        }
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
         compositeSubscription = new CompositeSubscription();
+        compositeSubscription.add(searchAdapter
+                .subscribe(DeviceSearchAdapter.search(getContentResolver(),
+                        searchTexts)));
+        adapter.start();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
         compositeSubscription.unsubscribe();
+        adapter.stop();
         VolleyApiClient.getInstance(this).cancelAll(VOLLEY_TAG);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        Loader<Cursor> loader = null;
-        String[] projection = {
-                DevicesContract.DeviceManufacturer.MODEL,
-                DevicesContract.DeviceManufacturer.DEVICE_ID,
-                DevicesContract.DeviceManufacturer.SHORT_NAME
-        };
-
-        switch (id) {
-            case LOADER_ID_DEVICES:
-                loader = new CursorLoader(this,
-                        DevicesContract.DeviceManufacturer.CONTENT_URI,
-                        projection,
-                        null,
-                        null,
-                        DevicesContract.DeviceManufacturer.MODEL);
-                break;
-        }
-
-        return loader;
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data == null || data.getCount() == 0) {
-            empty.setVisibility(View.VISIBLE);
-            recyclerView.setVisibility(View.GONE);
-        } else {
-            empty.setVisibility(View.GONE);
-            recyclerView.setVisibility(View.VISIBLE);
-            ((DeviceCursorAdapter) recyclerView.getAdapter()).swapCursor(data);
-        }
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        ((DeviceCursorAdapter) recyclerView.getAdapter()).swapCursor(null);
-    }
-
-    private class DeviceCursorAdapter
-            extends RecyclerView.Adapter<DeviceViewHolder> {
-        private Cursor deviceCursor;
-
-        @Override
-        public DeviceViewHolder onCreateViewHolder(ViewGroup parent,
-                                                   int viewType) {
-            View view = LayoutInflater.from(parent.getContext())
-                    .inflate(R.layout.list_item_device, parent, false);
-
-            return new DeviceViewHolder(view);
-        }
-
-        @Override
-        public void onBindViewHolder(DeviceViewHolder holder,
-                                     int position) {
-            if (deviceCursor != null
-                    && deviceCursor.moveToPosition(position)) {
-                String model = deviceCursor
-                        .getString(deviceCursor
-                                .getColumnIndexOrThrow(DevicesContract
-                                        .DeviceManufacturer
-                                        .MODEL));
-
-                int deviceId = deviceCursor
-                        .getInt(deviceCursor
-                                .getColumnIndexOrThrow(DevicesContract
-                                        .DeviceManufacturer
-                                        .DEVICE_ID));
-
-                String shortName = deviceCursor
-                        .getString(deviceCursor
-                                .getColumnIndexOrThrow(DevicesContract
-                                        .DeviceManufacturer
-                                        .SHORT_NAME));
-
-                holder.name.setText(getString(R.string.device_name,
-                        shortName,
-                        model,
-                        deviceId));
-                holder.uri = ContentUris
-                        .withAppendedId(DevicesContract.Device.CONTENT_URI,
-                                        deviceId);
-            }
-        }
-
-        @Override
-        public int getItemCount() {
-            return (deviceCursor == null ? 0 : deviceCursor.getCount());
-        }
-
-    public void swapCursor(Cursor newDeviceCursor) {
-        if (deviceCursor != null) {
-            deviceCursor.close();
-        }
-
-            deviceCursor = newDeviceCursor;
-
-            notifyDataSetChanged();
-        }
-    }
-
-    private class DeviceViewHolder
-            extends RecyclerView.ViewHolder
-            implements View.OnClickListener {
-        public TextView name;
-        public Uri uri;
-
-        public DeviceViewHolder(View itemView) {
-            super(itemView);
-
-            itemView.setOnClickListener(this);
-            name = (TextView) itemView.findViewById(R.id.name);
-        }
-
-        @Override
-        public void onClick(View view) {
-            Intent detailIntent =
-                    new Intent(view.getContext(),
-                               DeviceDetailActivity.class);
-
-            detailIntent.putExtra(DeviceDetailActivity.EXTRA_DEVICE_URI, uri);
-            startActivity(detailIntent);
-        }
+    protected void onDestroy() {
+        super.onDestroy();
+        searchAdapter.close();
     }
 }
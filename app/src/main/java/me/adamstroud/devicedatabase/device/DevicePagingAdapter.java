@@ -0,0 +1,754 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.device;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.R;
+import me.adamstroud.devicedatabase.provider.ContentQueries;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+import rx.Observable;
+import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subscriptions.CompositeSubscription;
+
+/**
+ * Displays the device list one page at a time. Pages are read from the
+ * keyset-paginated {@link DevicesContract.DeviceManufacturer} Uri as the
+ * user scrolls, and pages that are far from the visible rows are dropped
+ * so that the memory used by the adapter stays bounded.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class DevicePagingAdapter
+        extends RecyclerView.Adapter<DevicePagingAdapter.DeviceViewHolder> {
+    private static final String TAG =
+            DevicePagingAdapter.class.getSimpleName();
+
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The number of pages around the most recently bound row that are kept
+     * in memory.
+     */
+    private static final int MAX_RESIDENT_PAGES = 5;
+
+    /**
+     * How close to the end of the loaded rows a bind needs to be before the
+     * next page is requested.
+     */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    private static final String[] PROJECTION = {
+            DevicesContract.DeviceManufacturer.MODEL,
+            DevicesContract.DeviceManufacturer.DEVICE_ID,
+            DevicesContract.DeviceManufacturer.SHORT_NAME
+    };
+
+    private final Context context;
+    private final List<Page> pages = new ArrayList<>();
+    private CompositeSubscription subscriptions = new CompositeSubscription();
+    private int itemCount;
+    private boolean appending;
+    private boolean endReached;
+
+    /**
+     * Incremented whenever the pages are read again so that loads that were
+     * started for the old pages are ignored.
+     */
+    private int generation;
+
+    /* package */ DevicePagingAdapter(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Reads the pages and starts listening for changes.
+     */
+    public void start() {
+        subscriptions = new CompositeSubscription();
+
+        // A burst of changes, such as a sync, only causes a single reload
+        subscriptions.add(ContentQueries
+                .changes(context.getContentResolver(),
+                        DevicesContract.DeviceManufacturer.CONTENT_URI,
+                        true,
+                        ContentQueries.DEFAULT_DEBOUNCE_MS)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<Uri>() {
+                    @Override
+                    public void call(Uri uri) {
+                        reload();
+                    }
+                }));
+
+        reload();
+    }
+
+    /**
+     * Stops listening for changes and cancels the pending page loads.
+     */
+    public void stop() {
+        subscriptions.unsubscribe();
+    }
+
+    private void reload() {
+        reload(-1);
+    }
+
+    /**
+     * Reads the resident pages again in place, so that a change does not
+     * move the list back to the top. The old rows stay on screen until the
+     * new ones have been read.
+     *
+     * <p>The pages are read one after the other from the key of the first
+     * one, and each is compared with its old rows off the main thread, so
+     * only the rows that changed are bound again. The page that follows
+     * the last one read is keyed from its new rows, and the pages before
+     * the first one are checked when they are read again.</p>
+     *
+     * @param pageIndex A page to read along with the resident pages, or -1.
+     */
+    private void reload(int pageIndex) {
+        final int reloadGeneration = ++generation;
+        int first = (pageIndex == -1 ? Integer.MAX_VALUE : pageIndex);
+        int last = pageIndex;
+
+        for (int i = 0; i < pages.size(); i++) {
+            final Page page = pages.get(i);
+
+            if (page.rows != null || page.loading) {
+                first = Math.min(first, i);
+                last = Math.max(last, i);
+            }
+        }
+
+        if (last == -1) {
+            first = 0;
+            last = 0;
+        }
+
+        final int firstPage = first;
+
+        // Loads that were started before the reload are ignored, so these
+        // are still the rows on screen when the reload is applied
+        final PageRows[] oldRows = new PageRows[last - first + 1];
+        String afterModel = null;
+        long afterDeviceId = 0;
+
+        if (!pages.isEmpty()) {
+            for (int i = 0; i < oldRows.length; i++) {
+                oldRows[i] = pages.get(first + i).rows;
+            }
+
+            afterModel = pages.get(first).afterModel;
+            afterDeviceId = pages.get(first).afterDeviceId;
+        }
+
+        subscriptions.add(readPages(afterModel, afterDeviceId, oldRows.length)
+                .map(new Func1<List<PageRows>, Reload>() {
+                    @Override
+                    public Reload call(List<PageRows> rows) {
+                        final DiffUtil.DiffResult[] diffs =
+                                new DiffUtil.DiffResult[rows.size()];
+
+                        for (int i = 0; i < diffs.length; i++) {
+                            if (oldRows[i] != null) {
+                                diffs[i] = DiffUtil
+                                        .calculateDiff(new PageCallback(oldRows[i],
+                                                rows.get(i)));
+                            }
+                        }
+
+                        return new Reload(rows, diffs);
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Subscriber<Reload>() {
+                    @Override
+                    public void onCompleted() {
+                        // no-op
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Could not reload", e);
+                    }
+
+                    @Override
+                    public void onNext(Reload reload) {
+                        if (reloadGeneration == generation) {
+                            applyReload(firstPage, reload);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Replaces the rows of the pages that were read by a reload.
+     *
+     * @param first The index of the first page that was read.
+     */
+    private void applyReload(int first, Reload reload) {
+        // Pages that were requested during the reload were keyed from the
+        // old rows
+        generation++;
+        appending = false;
+        endReached = false;
+
+        if (pages.isEmpty()) {
+            final Page page = new Page(null, 0);
+
+            page.rows = reload.rows.get(0);
+            page.size = page.rows.size;
+            pages.add(page);
+            itemCount = page.size;
+            notifyDataSetChanged();
+            return;
+        }
+
+        for (int i = 0; i < reload.rows.size(); i++) {
+            final int pageIndex = first + i;
+            final Page page = pages.get(pageIndex);
+            final PageRows rows = reload.rows.get(i);
+
+            if (i > 0) {
+                page.setKey(reload.rows.get(i - 1));
+            }
+
+            if (rows.size == 0 && pageIndex > 0) {
+                removePages(pageIndex);
+                return;
+            }
+
+            final int start = pageIndex * PAGE_SIZE;
+            final int oldSize = page.size;
+
+            page.rows = rows;
+            page.size = rows.size;
+            itemCount += rows.size - oldSize;
+
+            if (reload.diffs[i] != null) {
+                reload.diffs[i].dispatchUpdatesTo(new OffsetCallback(start));
+            } else {
+                notifyItemRangeChanged(start, Math.min(oldSize, rows.size));
+
+                if (rows.size < oldSize) {
+                    notifyItemRangeRemoved(start + rows.size,
+                            oldSize - rows.size);
+                } else if (rows.size > oldSize) {
+                    notifyItemRangeInserted(start + oldSize,
+                            rows.size - oldSize);
+                }
+            }
+
+            if (rows.size < PAGE_SIZE) {
+                // The data now ends in this page
+                removePages(pageIndex + 1);
+                return;
+            }
+        }
+
+        final int nextPage = first + reload.rows.size();
+
+        if (nextPage < pages.size()) {
+            pages.get(nextPage).setKey(reload.rows.get(reload.rows.size() - 1));
+        }
+    }
+
+    /**
+     * Removes the given page and the pages after it.
+     */
+    private void removePages(int pageIndex) {
+        if (pageIndex < pages.size()) {
+            final int start = pageIndex * PAGE_SIZE;
+            final int count = itemCount - start;
+
+            pages.subList(pageIndex, pages.size()).clear();
+            itemCount = start;
+            notifyItemRangeRemoved(start, count);
+        }
+    }
+
+    @Override
+    public DeviceViewHolder onCreateViewHolder(ViewGroup parent,
+                                               int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item_device, parent, false);
+
+        return new DeviceViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(DeviceViewHolder holder, int position) {
+        final int pageIndex = position / PAGE_SIZE;
+        final Page page = pages.get(pageIndex);
+
+        evictPages(pageIndex);
+
+        if (page.rows == null) {
+            holder.name.setText(null);
+            holder.deviceId = -1;
+
+            requestPage(pageIndex);
+        } else {
+            final PageRows rows = page.rows;
+            final int row = position - (pageIndex * PAGE_SIZE);
+
+            // The names are formatted when the page is read, so nothing
+            // is allocated while binding
+            holder.name.setText(rows.names[row]);
+            holder.deviceId = rows.deviceIds[row];
+        }
+
+        final Page lastPage = pages.get(pages.size() - 1);
+
+        if (position >= itemCount - PREFETCH_DISTANCE
+                && !endReached
+                && lastPage.rows != null
+                && lastPage.size == PAGE_SIZE) {
+            appendPage(lastPage);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Drops the rows of the pages that are outside of the resident window
+     * around the given page. The page keys are kept so that the rows can
+     * be read again.
+     */
+    private void evictPages(int pageIndex) {
+        final int distance = MAX_RESIDENT_PAGES / 2;
+
+        for (int i = 0; i < pages.size(); i++) {
+            if (Math.abs(i - pageIndex) > distance) {
+                pages.get(i).rows = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of a page that was evicted.
+     */
+    private void requestPage(final int pageIndex) {
+        final Page page = pages.get(pageIndex);
+
+        if (page.loading) {
+            return;
+        }
+
+        final int requestGeneration = generation;
+        page.loading = true;
+
+        subscriptions.add(loadPage(page)
+                .subscribe(new PageSubscriber(page) {
+                    @Override
+                    public void onNext(PageRows rows) {
+                        if (requestGeneration != generation) {
+                            return;
+                        }
+
+                        final boolean lastPage =
+                                (pageIndex == pages.size() - 1);
+
+                        if (rows.size == page.size
+                                && (lastPage || pages.get(pageIndex + 1).follows(rows))) {
+                            page.rows = rows;
+                            notifyItemRangeChanged(pageIndex * PAGE_SIZE,
+                                    page.size);
+                        } else {
+                            // The data changed since the pages around this
+                            // one were read
+                            reload(pageIndex);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Reads the page that follows the given (full) page.
+     */
+    private void appendPage(Page lastPage) {
+        if (appending) {
+            return;
+        }
+
+        final int requestGeneration = generation;
+        final Page nextPage = new Page(lastPage.rows.models[PAGE_SIZE - 1],
+                lastPage.rows.deviceIds[PAGE_SIZE - 1]);
+
+        appending = true;
+
+        subscriptions.add(loadPage(nextPage)
+                .subscribe(new PageSubscriber(nextPage) {
+                    @Override
+                    public void onCompleted() {
+                        super.onCompleted();
+                        appending = false;
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        super.onError(e);
+                        appending = false;
+                    }
+
+                    @Override
+                    public void onNext(PageRows rows) {
+                        if (requestGeneration != generation) {
+                            return;
+                        }
+
+                        if (rows.size == 0) {
+                            endReached = true;
+                        } else {
+                            final int start = itemCount;
+
+                            nextPage.rows = rows;
+                            nextPage.size = rows.size;
+                            pages.add(nextPage);
+                            itemCount += rows.size;
+                            notifyItemRangeInserted(start, rows.size);
+                        }
+                    }
+                }));
+    }
+
+    private Observable<PageRows> loadPage(Page page) {
+        return readPages(page.afterModel, page.afterDeviceId, 1)
+                .map(new Func1<List<PageRows>, PageRows>() {
+                    @Override
+                    public PageRows call(List<PageRows> rows) {
+                        return rows.get(0);
+                    }
+                })
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Reads consecutive pages, each keyed by the last row of the page
+     * before it. Reading stops early after a page that is not full.
+     *
+     * @return An observable that reads the pages on
+     *         {@link ContentQueries#scheduler()}.
+     */
+    private Observable<List<PageRows>> readPages(final String afterModel,
+                                                 final long afterDeviceId,
+                                                 final int count) {
+        final ContentResolver contentResolver = context.getContentResolver();
+        final String nameFormat = context.getString(R.string.device_name);
+
+        return Observable.defer(new Func0<Observable<List<PageRows>>>() {
+            @Override
+            public Observable<List<PageRows>> call() {
+                final List<PageRows> pageRows = new ArrayList<>(count);
+                String model = afterModel;
+                long deviceId = afterDeviceId;
+
+                while (pageRows.size() < count) {
+                    final Uri uri = DevicesContract
+                            .buildDeviceManufacturerPageUri(model,
+                                    deviceId,
+                                    PAGE_SIZE);
+
+                    final Cursor cursor = contentResolver.query(uri,
+                            PROJECTION,
+                            null,
+                            null,
+                            null);
+
+                    final PageRows rows;
+
+                    try {
+                        rows = new PageRows(cursor, nameFormat);
+                    } finally {
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                    }
+
+                    pageRows.add(rows);
+
+                    if (rows.size < PAGE_SIZE) {
+                        break;
+                    }
+
+                    model = rows.models[PAGE_SIZE - 1];
+                    deviceId = rows.deviceIds[PAGE_SIZE - 1];
+                }
+
+                return Observable.just(pageRows);
+            }
+        })
+                .subscribeOn(ContentQueries.scheduler());
+    }
+
+    /**
+     * The location of a page. A page starts after the row identified by
+     * its key, so it can be read again without an offset. The key changes
+     * when a reload reads the page before it.
+     */
+    private static class Page {
+        private String afterModel;
+        private long afterDeviceId;
+        private PageRows rows;
+        private int size;
+        private boolean loading;
+
+        private Page(String afterModel, long afterDeviceId) {
+            this.afterModel = afterModel;
+            this.afterDeviceId = afterDeviceId;
+        }
+
+        /**
+         * Keys the page by the last row of the given (full) page.
+         */
+        private void setKey(PageRows previous) {
+            afterModel = previous.models[PAGE_SIZE - 1];
+            afterDeviceId = previous.deviceIds[PAGE_SIZE - 1];
+        }
+
+        /**
+         * @return true if the page starts right after the given rows.
+         */
+        private boolean follows(PageRows previous) {
+            return previous.size > 0
+                    && previous.deviceIds[previous.size - 1] == afterDeviceId
+                    && TextUtils.equals(previous.models[previous.size - 1],
+                    afterModel);
+        }
+    }
+
+    /**
+     * The rows of a page, copied out of the cursor so that the cursor can
+     * be closed as soon as it has been read.
+     */
+    private static class PageRows {
+        private final int size;
+        private final String[] models;
+        private final long[] deviceIds;
+        private final String[] shortNames;
+
+        /**
+         * The text that is shown for each row.
+         */
+        private final String[] names;
+
+        /**
+         * @param nameFormat The {@link R.string#device_name} format.
+         */
+        private PageRows(Cursor cursor, String nameFormat) {
+            size = (cursor == null ? 0 : cursor.getCount());
+            models = new String[size];
+            deviceIds = new long[size];
+            shortNames = new String[size];
+            names = new String[size];
+
+            if (cursor != null) {
+                final int modelIndex = cursor
+                        .getColumnIndexOrThrow(DevicesContract
+                                .DeviceManufacturer
+                                .MODEL);
+
+                final int deviceIdIndex = cursor
+                        .getColumnIndexOrThrow(DevicesContract
+                                .DeviceManufacturer
+                                .DEVICE_ID);
+
+                final int shortNameIndex = cursor
+                        .getColumnIndexOrThrow(DevicesContract
+                                .DeviceManufacturer
+                                .SHORT_NAME);
+
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    models[i] = cursor.getString(modelIndex);
+                    deviceIds[i] = cursor.getLong(deviceIdIndex);
+                    shortNames[i] = cursor.getString(shortNameIndex);
+                    names[i] = String.format(nameFormat,
+                            shortNames[i],
+                            models[i],
+                            deviceIds[i]);
+                }
+            }
+        }
+    }
+
+    private static class Reload {
+        private final List<PageRows> rows;
+
+        /**
+         * The changes to each page, or null for the pages whose old rows
+         * were not resident.
+         */
+        private final DiffUtil.DiffResult[] diffs;
+
+        private Reload(List<PageRows> rows, DiffUtil.DiffResult[] diffs) {
+            this.rows = rows;
+            this.diffs = diffs;
+        }
+    }
+
+    /**
+     * Compares the old rows of a page with its new rows. Rows are matched
+     * by device ID.
+     */
+    private static class PageCallback extends DiffUtil.Callback {
+        private final PageRows oldRows;
+        private final PageRows newRows;
+
+        private PageCallback(PageRows oldRows, PageRows newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.size;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.size;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition,
+                                       int newItemPosition) {
+            return oldRows.deviceIds[oldItemPosition]
+                    == newRows.deviceIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition,
+                                          int newItemPosition) {
+            return TextUtils.equals(oldRows.models[oldItemPosition],
+                    newRows.models[newItemPosition])
+                    && TextUtils.equals(oldRows.shortNames[oldItemPosition],
+                    newRows.shortNames[newItemPosition]);
+        }
+    }
+
+    /**
+     * Dispatches the changes to a page at the position of the page.
+     */
+    private class OffsetCallback implements ListUpdateCallback {
+        private final int offset;
+
+        private OffsetCallback(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(offset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(offset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(offset + fromPosition, offset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(offset + position, count, payload);
+        }
+    }
+
+    private abstract static class PageSubscriber extends Subscriber<PageRows> {
+        private final Page page;
+
+        private PageSubscriber(Page page) {
+            this.page = page;
+        }
+
+        @Override
+        public void onCompleted() {
+            page.loading = false;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            page.loading = false;
+            Log.e(TAG, "Could not load page", e);
+        }
+    }
+
+    /* package */ static class DeviceViewHolder
+            extends RecyclerView.ViewHolder
+            implements View.OnClickListener {
+        public TextView name;
+        public long deviceId = -1;
+
+        /* package */ final CharArrayBuffer nameBuffer =
+                new CharArrayBuffer(64);
+
+        public DeviceViewHolder(View itemView) {
+            super(itemView);
+
+            itemView.setOnClickListener(this);
+            name = (TextView) itemView.findViewById(R.id.name);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (deviceId != -1) {
+                final Uri uri = ContentUris
+                        .withAppendedId(DevicesContract.Device.CONTENT_URI,
+                                deviceId);
+
+                Intent detailIntent =
+                        new Intent(view.getContext(),
+                                DeviceDetailActivity.class);
+
+                detailIntent.putExtra(DeviceDetailActivity.EXTRA_DEVICE_URI,
+                        uri);
+
+                view.getContext().startActivity(detailIntent);
+            }
+        }
+    }
+}
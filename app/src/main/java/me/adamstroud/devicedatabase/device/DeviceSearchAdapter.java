@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.device;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.adamstroud.devicedatabase.R;
+import me.adamstroud.devicedatabase.provider.ContentQueries;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+import me.adamstroud.devicedatabase.widget.CursorRowBinder;
+import me.adamstroud.devicedatabase.widget.DiffingCursorAdapter;
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Displays the results of a device search as the user types.
+ *
+ * <p>Typing is debounced, and each new search text replaces the query for
+ * the previous one. The replaced query is cancelled in SQLite through its
+ * {@link android.os.CancellationSignal}, so a query that is no longer
+ * needed stops rather than running to completion.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class DeviceSearchAdapter
+        extends DiffingCursorAdapter<DevicePagingAdapter.DeviceViewHolder> {
+    /**
+     * How long the search text needs to stay unchanged before it is
+     * searched for.
+     */
+    private static final long TYPING_DEBOUNCE_MS = 300;
+
+    private static final int SEARCH_LIMIT = 50;
+
+    private static final String[] PROJECTION = {
+            DevicesContract.DeviceSearch.DEVICE_ID,
+            DevicesContract.DeviceSearch.MODEL
+    };
+
+    // Positions in PROJECTION
+    private static final int COLUMN_DEVICE_ID = 0;
+    private static final int COLUMN_MODEL = 1;
+
+    private final CursorRowBinder binder = new CursorRowBinder(PROJECTION);
+
+    /* package */ DeviceSearchAdapter() {
+        super(DevicesContract.DeviceSearch.DEVICE_ID);
+    }
+
+    /**
+     * @param searchTexts The search text, each time it changes.
+     *
+     * @return The results of the latest search text, or null cursors when
+     *         the text is empty.
+     */
+    /* package */ static Observable<Cursor> search(final ContentResolver resolver,
+                                                   Observable<String> searchTexts) {
+        return ContentQueries.switchMap(searchTexts
+                        .debounce(TYPING_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                        .distinctUntilChanged(),
+                new Func1<String, Observable<Cursor>>() {
+                    @Override
+                    public Observable<Cursor> call(String searchText) {
+                        if (TextUtils.getTrimmedLength(searchText) == 0) {
+                            return Observable.<Cursor>just(null);
+                        }
+
+                        return ContentQueries.query(resolver,
+                                DevicesContract.buildDeviceSearchUri(searchText,
+                                        SEARCH_LIMIT),
+                                PROJECTION,
+                                null,
+                                null,
+                                null);
+                    }
+                });
+    }
+
+    @Override
+    public DevicePagingAdapter.DeviceViewHolder onCreateViewHolder(ViewGroup parent,
+                                                                   int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item_device, parent, false);
+
+        return new DevicePagingAdapter.DeviceViewHolder(view);
+    }
+
+    @Override
+    protected void onBindViewHolder(DevicePagingAdapter.DeviceViewHolder holder,
+                                    Cursor cursor) {
+        binder.setCursor(cursor);
+        binder.setText(COLUMN_MODEL, holder.name, holder.nameBuffer);
+        holder.deviceId = binder.getLong(COLUMN_DEVICE_ID);
+    }
+}
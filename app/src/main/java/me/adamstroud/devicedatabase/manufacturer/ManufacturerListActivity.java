@@ -16,12 +16,9 @@
 
 package me.adamstroud.devicedatabase.manufacturer;
 
-import android.app.LoaderManager;
 import android.content.ContentUris;
-import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -34,19 +31,33 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import me.adamstroud.devicedatabase.R;
+import me.adamstroud.devicedatabase.provider.ContentQueries;
 import me.adamstroud.devicedatabase.provider.DevicesContract;
+import me.adamstroud.devicedatabase.widget.CursorRowBinder;
+import me.adamstroud.devicedatabase.widget.DiffingCursorAdapter;
+import rx.Subscription;
 
 /**
  * A device manufacturer.
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
-public class ManufacturerListActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
-    private static final int LOADER_ID_MANUFACTURERS = 1;
-
+public class ManufacturerListActivity extends AppCompatActivity {
     public static final String EXTRA_MANUFACTURER_URI = "manufacturerUri";
 
+    private static final String[] PROJECTION = {
+            DevicesContract.Manufacturer._ID,
+            DevicesContract.Manufacturer.LONG_NAME,
+            DevicesContract.Manufacturer.SHORT_NAME
+    };
+
+    // Positions in PROJECTION
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_LONG_NAME = 1;
+    private static final int COLUMN_SHORT_NAME = 2;
+
     private ManufacturerCursorAdapter adapter;
+    private Subscription subscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,46 +68,35 @@ public class ManufacturerListActivity extends AppCompatActivity implements Loade
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         adapter = new ManufacturerCursorAdapter();
         recyclerView.setAdapter(adapter);
-
-        getLoaderManager().initLoader(LOADER_ID_MANUFACTURERS, null, this);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        Loader<Cursor> loader = null;
-        switch (id) {
-            case LOADER_ID_MANUFACTURERS:
-                loader = new CursorLoader(this,
+    protected void onStart() {
+        super.onStart();
+
+        subscription = adapter.subscribe(ContentQueries
+                .query(getContentResolver(),
                         DevicesContract.Manufacturer.CONTENT_URI,
-                        new String[] {DevicesContract.Manufacturer._ID,
-                                DevicesContract.Manufacturer.LONG_NAME,
-                                DevicesContract.Manufacturer.SHORT_NAME},
+                        PROJECTION,
                         null,
                         null,
-                        DevicesContract.Manufacturer.LONG_NAME);
-                break;
-        }
-
-        return loader;
+                        DevicesContract.Manufacturer.LONG_NAME));
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data == null || data.getCount() == 0) {
-
-        } else {
-            adapter.swapCursor(data);
-        }
+    protected void onStop() {
+        super.onStop();
+        subscription.unsubscribe();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        adapter.swapCursor(null);
+    protected void onDestroy() {
+        super.onDestroy();
+        adapter.close();
     }
 
-    private class ManufacturerCursorAdapter extends RecyclerView.Adapter<ManufacturerViewHolder> {
-        private Cursor cursor;
-
+    private class ManufacturerCursorAdapter extends DiffingCursorAdapter<ManufacturerViewHolder> {
+        private final CursorRowBinder binder = new CursorRowBinder(PROJECTION);
         @Override
         public ManufacturerViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = LayoutInflater.from(parent.getContext())
@@ -106,37 +106,21 @@ public class ManufacturerListActivity extends AppCompatActivity implements Loade
         }
 
         @Override
-        public void onBindViewHolder(ManufacturerViewHolder holder, int position) {
-            final ContentValues contentValues = new ContentValues();
-
-            if (cursor != null && cursor.moveToPosition(position)) {
-                holder.longNameView.setText(cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract.Manufacturer.LONG_NAME)));
-                holder.shortNameView.setText(cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract.Manufacturer.SHORT_NAME)));
-                holder.uri = ContentUris.withAppendedId(DevicesContract.Manufacturer.CONTENT_URI,
-                        cursor.getLong(cursor.getColumnIndexOrThrow(DevicesContract.Manufacturer._ID)));
-            }
-        }
-
-        @Override
-        public int getItemCount() {
-            return (cursor == null ? 0 : cursor.getCount());
-        }
-
-        public void swapCursor(Cursor newDeviceCursor) {
-            if (cursor != null) {
-                cursor.close();
-            }
-
-            cursor = newDeviceCursor;
-
-            notifyDataSetChanged();
+        protected void onBindViewHolder(ManufacturerViewHolder holder, Cursor cursor) {
+            binder.setCursor(cursor);
+            binder.setText(COLUMN_LONG_NAME, holder.longNameView, holder.longName);
+            binder.setText(COLUMN_SHORT_NAME, holder.shortNameView, holder.shortName);
+            holder.id = binder.getLong(COLUMN_ID);
         }
     }
 
     private class ManufacturerViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         public TextView longNameView;
         public TextView shortNameView;
-        public Uri uri;
+        public long id;
+
+        private final CharArrayBuffer longName = new CharArrayBuffer(64);
+        private final CharArrayBuffer shortName = new CharArrayBuffer(16);
 
         public ManufacturerViewHolder(View itemView) {
             super(itemView);
@@ -148,6 +132,8 @@ public class ManufacturerListActivity extends AppCompatActivity implements Loade
 
         @Override
         public void onClick(View view) {
+            final Uri uri = ContentUris.withAppendedId(DevicesContract.Manufacturer.CONTENT_URI, id);
+
             setResult(RESULT_OK, new Intent().putExtra(EXTRA_MANUFACTURER_URI, uri));
             finish();
         }
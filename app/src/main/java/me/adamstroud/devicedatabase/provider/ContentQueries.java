@@ -0,0 +1,610 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Producer;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.SerialSubscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Queries {@link DevicesContract} Uris as observables that emit a new
+ * result whenever the Uri changes. This replaces
+ * {@link android.content.CursorLoader}, which queries again as soon as
+ * each change is notified.
+ *
+ * <p>Change notifications are debounced, so a burst of writes, such as a
+ * sync, only causes a single query once it is over. A query that is still
+ * running when a newer one starts is cancelled through a
+ * {@link CancellationSignal}, and its cursor is never emitted.</p>
+ *
+ * <p>Operators such as {@link Observable#switchMap(Func1)} and
+ * {@link Observable#observeOn(Scheduler)} drop items without closing
+ * them, so cursors are passed on with {@link #switchMap(Observable, Func1)}
+ * and {@link #observeOn(Scheduler)} instead, which close every cursor
+ * that does not reach the subscriber.</p>
+ *
+ * <p>Queries run on {@link #scheduler()}, which has a fixed number of
+ * threads, rather than on {@link Schedulers#io()}, which starts a new
+ * thread whenever every thread is busy.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public final class ContentQueries {
+    /**
+     * How long a Uri needs to go without a change before it is queried
+     * again.
+     */
+    public static final long DEFAULT_DEBOUNCE_MS = 150;
+
+    private static final int QUERY_THREADS = 2;
+
+    private static final Scheduler SCHEDULER =
+            Schedulers.from(Executors.newFixedThreadPool(QUERY_THREADS));
+
+    private ContentQueries() {
+        // no-op
+    }
+
+    /**
+     * @return The scheduler that the queries run on.
+     */
+    public static Scheduler scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Queries the Uri when subscribed to, and again whenever the Uri or one
+     * of its descendants changes.
+     *
+     * @see #query(ContentResolver, Uri, String[], String, String[], String, boolean, long)
+     */
+    public static Observable<Cursor> query(ContentResolver resolver,
+                                           Uri uri,
+                                           String[] projection,
+                                           String selection,
+                                           String[] selectionArgs,
+                                           String sortOrder) {
+        return query(resolver,
+                uri,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder,
+                true,
+                DEFAULT_DEBOUNCE_MS);
+    }
+
+    /**
+     * Queries the Uri when subscribed to, and again whenever the Uri
+     * changes. Each cursor that is emitted belongs to the subscriber, which
+     * needs to close it.
+     *
+     * <p>The cursors are emitted on {@link #scheduler()}, and the rows of
+     * the first window have already been read.</p>
+     *
+     * @param notifyForDescendants true to query again when a descendant of
+     *                             the Uri changes as well.
+     * @param debounceMs How long the Uri needs to go without a change
+     *                   before it is queried again.
+     */
+    public static Observable<Cursor> query(final ContentResolver resolver,
+                                           final Uri uri,
+                                           final String[] projection,
+                                           final String selection,
+                                           final String[] selectionArgs,
+                                           final String sortOrder,
+                                           boolean notifyForDescendants,
+                                           long debounceMs) {
+        // The observer is registered before the first query runs, so no
+        // change can go unnoticed
+        return switchMap(Observable
+                        .merge(changes(resolver, uri, notifyForDescendants, debounceMs),
+                                Observable.just(uri)),
+                new Func1<Uri, Observable<Cursor>>() {
+                    @Override
+                    public Observable<Cursor> call(Uri changedUri) {
+                        // Unsubscribing from the previous query cancels it
+                        return Observable
+                                .create(new QueryOnSubscribe(resolver,
+                                        uri,
+                                        projection,
+                                        selection,
+                                        selectionArgs,
+                                        sortOrder))
+                                .subscribeOn(SCHEDULER);
+                    }
+                });
+    }
+
+    /**
+     * Emits the cursors of the observable that was mapped from the latest
+     * value, like {@link Observable#switchMap(Func1)}. The cursors of the
+     * earlier observables are closed rather than emitted, as is a cursor
+     * that the subscriber has not requested by the time a newer one
+     * replaces it.
+     *
+     * @param func Maps each value to the cursors to emit for it. Null
+     *             cursors are emitted as well.
+     */
+    public static <T> Observable<Cursor> switchMap(final Observable<T> values,
+                                                   final Func1<? super T, Observable<Cursor>> func) {
+        return Observable.create(new Observable.OnSubscribe<Cursor>() {
+            @Override
+            public void call(Subscriber<? super Cursor> child) {
+                values.unsafeSubscribe(new SwitchSubscriber<>(child, func));
+            }
+        });
+    }
+
+    /**
+     * Emits the cursors on the given scheduler, like
+     * {@link Observable#observeOn(Scheduler)}. A cursor that is still on
+     * its way to the scheduler when the subscriber unsubscribes is closed.
+     *
+     * <pre>cursors.compose(ContentQueries.observeOn(AndroidSchedulers.mainThread()))</pre>
+     */
+    public static Observable.Transformer<Cursor, Cursor> observeOn(final Scheduler scheduler) {
+        return new Observable.Transformer<Cursor, Cursor>() {
+            @Override
+            public Observable<Cursor> call(final Observable<Cursor> cursors) {
+                return Observable.defer(new Func0<Observable<Cursor>>() {
+                    @Override
+                    public Observable<Cursor> call() {
+                        final InFlightCursors inFlight = new InFlightCursors();
+
+                        return cursors
+                                .filter(new Func1<Cursor, Boolean>() {
+                                    @Override
+                                    public Boolean call(Cursor cursor) {
+                                        return inFlight.add(cursor);
+                                    }
+                                })
+                                .observeOn(scheduler)
+                                .filter(new Func1<Cursor, Boolean>() {
+                                    @Override
+                                    public Boolean call(Cursor cursor) {
+                                        return inFlight.claim(cursor);
+                                    }
+                                })
+                                .doOnUnsubscribe(new Action0() {
+                                    @Override
+                                    public void call() {
+                                        inFlight.close();
+                                    }
+                                });
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Emits the Uri whenever it changes, once it has gone without a change
+     * for the given time.
+     *
+     * @param notifyForDescendants true to emit when a descendant of the
+     *                             Uri changes as well.
+     * @param debounceMs How long the Uri needs to go without a change
+     *                   before it is emitted, or 0 to emit every change.
+     */
+    public static Observable<Uri> changes(final ContentResolver resolver,
+                                          final Uri uri,
+                                          final boolean notifyForDescendants,
+                                          long debounceMs) {
+        final Observable<Uri> changes = Observable
+                .create(new Observable.OnSubscribe<Uri>() {
+                    @Override
+                    public void call(final Subscriber<? super Uri> subscriber) {
+                        final ContentObserver observer =
+                                new ContentObserver(null) {
+                                    @Override
+                                    public void onChange(boolean selfChange) {
+                                        subscriber.onNext(uri);
+                                    }
+                                };
+
+                        resolver.registerContentObserver(uri,
+                                notifyForDescendants,
+                                observer);
+
+                        subscriber.add(Subscriptions.create(new Action0() {
+                            @Override
+                            public void call() {
+                                resolver.unregisterContentObserver(observer);
+                            }
+                        }));
+                    }
+                })
+                // Changes are delivered on any of the Binder threads
+                .serialize();
+
+        return (debounceMs > 0
+                ? changes.debounce(debounceMs, TimeUnit.MILLISECONDS)
+                : changes);
+    }
+
+    private static void closeQuietly(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The cursors that have been emitted on one thread and not yet been
+     * received on another, so that they can be closed if the subscriber
+     * unsubscribes in between.
+     */
+    public static final class InFlightCursors {
+        private final Set<Cursor> cursors = new HashSet<>();
+        private boolean closed;
+
+        /**
+         * Called on the emitting thread.
+         *
+         * @return false if the cursor was closed, as the subscriber is
+         *         gone.
+         */
+        public synchronized boolean add(Cursor cursor) {
+            if (closed) {
+                closeQuietly(cursor);
+                return false;
+            }
+
+            if (cursor != null) {
+                cursors.add(cursor);
+            }
+
+            return true;
+        }
+
+        /**
+         * Called on the receiving thread. The cursor then belongs to the
+         * caller.
+         *
+         * @return false if the cursor was closed, as the subscriber is
+         *         gone.
+         */
+        public synchronized boolean claim(Cursor cursor) {
+            return cursor == null || cursors.remove(cursor);
+        }
+
+        /**
+         * Closes the cursors that have not been claimed, and every cursor
+         * that is added later.
+         */
+        public synchronized void close() {
+            closed = true;
+
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+
+            cursors.clear();
+        }
+    }
+
+    /**
+     * Subscribes to the cursors of each value in turn for
+     * {@link #switchMap(Observable, Func1)}. Every event is passed on
+     * while holding the lock, so a cursor can only be emitted if its value
+     * is still the latest one.
+     */
+    private static class SwitchSubscriber<T> extends Subscriber<T> {
+        private final Subscriber<? super Cursor> child;
+        private final Func1<? super T, Observable<Cursor>> func;
+        private final SerialSubscription inner = new SerialSubscription();
+        private final Object lock = new Object();
+
+        // Guarded by lock
+        private long generation;
+        private long requested;
+        private Cursor pending;
+        private boolean hasPending;
+        private boolean innerActive;
+        private boolean outerDone;
+        private boolean terminated;
+
+        private SwitchSubscriber(Subscriber<? super Cursor> child,
+                                 Func1<? super T, Observable<Cursor>> func) {
+            this.child = child;
+            this.func = func;
+
+            child.add(this);
+            child.add(inner);
+            child.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    synchronized (lock) {
+                        terminated = true;
+                        clearPending();
+                    }
+                }
+            }));
+
+            child.setProducer(new Producer() {
+                @Override
+                public void request(long n) {
+                    if (n > 0) {
+                        onRequest(n);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T value) {
+            final Observable<Cursor> cursors;
+
+            try {
+                cursors = func.call(value);
+            } catch (Throwable e) {
+                Exceptions.throwIfFatal(e);
+                onError(e);
+                return;
+            }
+
+            final CursorSubscriber cursorSubscriber;
+
+            synchronized (lock) {
+                if (terminated) {
+                    return;
+                }
+
+                innerActive = true;
+                clearPending();
+                cursorSubscriber = new CursorSubscriber(++generation);
+            }
+
+            // Unsubscribes from the cursors of the previous value
+            inner.set(cursorSubscriber);
+            cursors.unsafeSubscribe(cursorSubscriber);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            synchronized (lock) {
+                if (!terminated) {
+                    terminated = true;
+                    clearPending();
+                    child.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (lock) {
+                outerDone = true;
+                completeIfDone();
+            }
+        }
+
+        private void onRequest(long n) {
+            synchronized (lock) {
+                requested = (requested + n < 0 ? Long.MAX_VALUE : requested + n);
+
+                if (hasPending && !terminated) {
+                    final Cursor cursor = pending;
+
+                    pending = null;
+                    hasPending = false;
+                    emit(cursor);
+                    completeIfDone();
+                }
+            }
+        }
+
+        /**
+         * Must hold the lock.
+         */
+        private void onCursor(long cursorGeneration, Cursor cursor) {
+            if (cursorGeneration != generation
+                    || terminated
+                    || child.isUnsubscribed()) {
+                closeQuietly(cursor);
+            } else if (requested == 0) {
+                clearPending();
+                pending = cursor;
+                hasPending = true;
+            } else {
+                emit(cursor);
+            }
+        }
+
+        /**
+         * Must hold the lock, with a request outstanding.
+         */
+        private void emit(Cursor cursor) {
+            if (requested != Long.MAX_VALUE) {
+                requested--;
+            }
+
+            child.onNext(cursor);
+        }
+
+        /**
+         * Must hold the lock.
+         */
+        private void completeIfDone() {
+            if (outerDone && !innerActive && !hasPending && !terminated) {
+                terminated = true;
+                child.onCompleted();
+            }
+        }
+
+        /**
+         * Must hold the lock.
+         */
+        private void clearPending() {
+            closeQuietly(pending);
+            pending = null;
+            hasPending = false;
+        }
+
+        private class CursorSubscriber extends Subscriber<Cursor> {
+            private final long cursorGeneration;
+
+            private CursorSubscriber(long cursorGeneration) {
+                this.cursorGeneration = cursorGeneration;
+            }
+
+            @Override
+            public void onNext(Cursor cursor) {
+                synchronized (lock) {
+                    onCursor(cursorGeneration, cursor);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                synchronized (lock) {
+                    if (cursorGeneration == generation && !terminated) {
+                        terminated = true;
+                        clearPending();
+                        child.onError(e);
+                    }
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                synchronized (lock) {
+                    if (cursorGeneration == generation) {
+                        innerActive = false;
+                        completeIfDone();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class QueryOnSubscribe implements Observable.OnSubscribe<Cursor> {
+        private final ContentResolver resolver;
+        private final Uri uri;
+        private final String[] projection;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+
+        private QueryOnSubscribe(ContentResolver resolver,
+                                 Uri uri,
+                                 String[] projection,
+                                 String selection,
+                                 String[] selectionArgs,
+                                 String sortOrder) {
+            this.resolver = resolver;
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public void call(Subscriber<? super Cursor> subscriber) {
+            final Cursor cursor;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                cursor = queryCancellable(subscriber);
+            } else {
+                cursor = resolver.query(uri,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder);
+
+                if (cursor != null) {
+                    // Reads the first window here rather than on the
+                    // thread that the cursor is handed to
+                    cursor.getCount();
+                }
+            }
+
+            if (subscriber.isUnsubscribed()) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            } else {
+                subscriber.onNext(cursor);
+                subscriber.onCompleted();
+            }
+        }
+
+        /**
+         * @return The cursor, or null if the query was cancelled.
+         */
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        private Cursor queryCancellable(Subscriber<? super Cursor> subscriber) {
+            final CancellationSignal cancellationSignal =
+                    new CancellationSignal();
+
+            subscriber.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    cancellationSignal.cancel();
+                }
+            }));
+
+            Cursor cursor = null;
+
+            try {
+                cursor = resolver.query(uri,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder,
+                        cancellationSignal);
+
+                if (cursor != null) {
+                    // The query only runs once the first window is read,
+                    // so it needs to be read while it can be cancelled
+                    cursor.getCount();
+                }
+
+                return cursor;
+            } catch (OperationCanceledException e) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+
+                return null;
+            }
+        }
+    }
+}
@@ -36,7 +36,122 @@ public final class DevicesContract {
             .authority(AUTHORITY)
             .build();
 
-    public interface Device extends BaseColumns {
+    /**
+     * Query parameter for the {@link Device#CONTENT_URI} and
+     * {@link Manufacturer#CONTENT_URI} insert Uris that resolves a row
+     * whose natural key already exists, rather than failing the insert.
+     * The value is either {@link #ON_CONFLICT_IGNORE} or
+     * {@link #ON_CONFLICT_UPDATE}, and the returned Uri always identifies
+     * the row that holds the natural key.
+     *
+     * @see #withOnConflict(Uri, String)
+     */
+    public static final String PARAM_ON_CONFLICT = "onConflict";
+
+    /**
+     * Keeps the existing row unchanged.
+     */
+    public static final String ON_CONFLICT_IGNORE = "ignore";
+
+    /**
+     * Updates the existing row with the inserted values.
+     */
+    public static final String ON_CONFLICT_UPDATE = "update";
+
+    /**
+     * Returns an insert Uri that resolves natural key conflicts.
+     *
+     * @param contentUri Either {@link Device#CONTENT_URI} or
+     *                   {@link Manufacturer#CONTENT_URI}.
+     * @param onConflict Either {@link #ON_CONFLICT_IGNORE} or
+     *                   {@link #ON_CONFLICT_UPDATE}.
+     */
+    public static Uri withOnConflict(Uri contentUri, String onConflict) {
+        return contentUri
+                .buildUpon()
+                .appendQueryParameter(PARAM_ON_CONFLICT, onConflict)
+                .build();
+    }
+
+    /**
+     * Returns a {@link DeviceManufacturer#CONTENT_URI} that selects a single
+     * page of rows, sorted by model and device ID. Pages are addressed by
+     * the key of the row that precedes them rather than by an offset, so
+     * each page is read directly from the model index.
+     *
+     * @param afterModel The model of the last row of the previous page, or
+     *                   null for the first page.
+     * @param afterDeviceId The device ID of the last row of the previous
+     *                      page. Ignored for the first page.
+     * @param pageSize The maximum number of rows in the page.
+     */
+    public static Uri buildDeviceManufacturerPageUri(String afterModel,
+                                                     long afterDeviceId,
+                                                     int pageSize) {
+        final Uri.Builder builder = DeviceManufacturer.CONTENT_URI
+                .buildUpon()
+                .appendQueryParameter(DeviceManufacturer.PARAM_PAGE_SIZE,
+                        Integer.toString(pageSize));
+
+        if (afterModel != null) {
+            builder.appendQueryParameter(DeviceManufacturer.PARAM_AFTER_MODEL,
+                    afterModel)
+                    .appendQueryParameter(DeviceManufacturer
+                            .PARAM_AFTER_DEVICE_ID,
+                            Long.toString(afterDeviceId));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns a {@link DeviceSearch#CONTENT_URI} that searches for the
+     * given text.
+     *
+     * @param query The text typed by the user.
+     * @param limit The maximum number of results.
+     */
+    public static Uri buildDeviceSearchUri(String query, int limit) {
+        return DeviceSearch.CONTENT_URI
+                .buildUpon()
+                .appendQueryParameter(DeviceSearch.PARAM_QUERY, query)
+                .appendQueryParameter(DeviceSearch.PARAM_LIMIT,
+                        Integer.toString(limit))
+                .build();
+    }
+
+    /**
+     * Returns a {@link DeviceStats} Uri that computes the given percentile.
+     *
+     * @param statsUri Either {@link DeviceStats#CONTENT_URI} or
+     *                 {@link DeviceStats#BY_MANUFACTURER_URI}.
+     * @param percentile The percentile, from 0 to 100.
+     */
+    public static Uri buildDeviceStatsUri(Uri statsUri, int percentile) {
+        return statsUri
+                .buildUpon()
+                .appendQueryParameter(DeviceStats.PARAM_PERCENTILE,
+                        Integer.toString(percentile))
+                .build();
+    }
+
+    /**
+     * Columns that are written by the sync adapter.
+     *
+     * <p>A full sync mirrors the catalog of the web API. Whichever way it
+     * is applied, it deletes every device and manufacturer that the
+     * catalog does not hold, including rows that were added locally and
+     * so were never synced.</p>
+     */
+    public interface SyncColumns {
+        /**
+         * Identifies the last sync that wrote the row, or null if the row
+         * has not been written by a sync that uses tokens.
+         */
+        public static final String SYNC_TOKEN = "sync_token";
+    }
+
+    public interface Device extends BaseColumns, SyncColumns {
         /* default */ static final String PATH = "device";
         public static final String MODEL = "model";
         public static final String NICKNAME = "nickname";
@@ -51,7 +166,7 @@ public final class DevicesContract {
                 Uri.withAppendedPath(AUTHORITY_URI, PATH);
     }
 
-    public interface Manufacturer extends BaseColumns {
+    public interface Manufacturer extends BaseColumns, SyncColumns {
         /* default */ static final String PATH = "manufacturer";
         public static final String SHORT_NAME = "short_name";
         public static final String LONG_NAME = "long_name";
@@ -65,7 +180,209 @@ public final class DevicesContract {
         public static final String DEVICE_ID = "device_id";
         public static final String MANUFACTURER_ID = "manufacturer_id";
 
+        /**
+         * Query parameter that limits the result to a page of rows, sorted
+         * by {@link #MODEL} and {@link #DEVICE_ID}. A query that sets it
+         * must not pass a sort order, as the pages are keyed by that order.
+         *
+         * @see DevicesContract#buildDeviceManufacturerPageUri(String, long, int)
+         */
+        public static final String PARAM_PAGE_SIZE = "pageSize";
+
+        /**
+         * Query parameter holding the {@link #MODEL} of the last row of the
+         * previous page.
+         */
+        public static final String PARAM_AFTER_MODEL = "afterModel";
+
+        /**
+         * Query parameter holding the {@link #DEVICE_ID} of the last row of
+         * the previous page.
+         */
+        public static final String PARAM_AFTER_DEVICE_ID = "afterDeviceId";
+
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(AUTHORITY_URI, PATH);
+    }
+
+    /**
+     * Full text search over the device model and nickname and the
+     * manufacturer names. Results are ranked so that rows with more matches
+     * of the query terms come first.
+     *
+     * @see DevicesContract#buildDeviceSearchUri(String, int)
+     */
+    public interface DeviceSearch {
+        /* default */ static final String PATH = "device-search";
+
+        /**
+         * The {@link Device#_ID} of the matching device.
+         */
+        public static final String DEVICE_ID = "device_id";
+
+        public static final String MODEL = "model";
+        public static final String NICKNAME = "nickname";
+        public static final String SHORT_NAME = "short_name";
+        public static final String LONG_NAME = "long_name";
+
+        /**
+         * Query parameter holding the text to search for. Each word is
+         * matched as a prefix.
+         */
+        public static final String PARAM_QUERY = "query";
+
+        /**
+         * Query parameter holding the maximum number of results.
+         */
+        public static final String PARAM_LIMIT = "limit";
+
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(AUTHORITY_URI, PATH);
+    }
+
+    /**
+     * Aggregate statistics about the devices, computed by the provider in
+     * SQL. {@link #CONTENT_URI} returns a single row that covers every
+     * device, and {@link #BY_MANUFACTURER_URI} returns one row per
+     * manufacturer. Results are cached by the provider until the data
+     * changes, so they are cheap to poll.
+     *
+     * <p>Percentiles use the nearest-rank method and ignore devices for
+     * which the value is null. They are computed after the aggregate
+     * query, so the sort order cannot refer to the percentile columns.</p>
+     *
+     * <p>Every change to the devices or manufacturers notifies
+     * {@link #CONTENT_URI}, and with it {@link #BY_MANUFACTURER_URI}.</p>
+     *
+     * @see DevicesContract#buildDeviceStatsUri(Uri, int)
+     */
+    public interface DeviceStats {
+        /* default */ static final String PATH = "device-stats";
+
+        /* default */ static final String BY_MANUFACTURER_PATH =
+                PATH + "/manufacturer";
+
+        /**
+         * Only available from {@link #BY_MANUFACTURER_URI}.
+         */
+        public static final String MANUFACTURER_ID = "manufacturer_id";
+
+        /**
+         * Only available from {@link #BY_MANUFACTURER_URI}.
+         */
+        public static final String SHORT_NAME = "short_name";
+
+        public static final String DEVICE_COUNT = "device_count";
+
+        public static final String AVG_DISPLAY_SIZE_INCHES =
+                "avg_display_size_inches";
+
+        public static final String AVG_MEMORY_MB = "avg_memory_mb";
+
+        public static final String PERCENTILE_DISPLAY_SIZE_INCHES =
+                "percentile_display_size_inches";
+
+        public static final String PERCENTILE_MEMORY_MB =
+                "percentile_memory_mb";
+
+        /**
+         * Query parameter holding the percentile, from 0 to 100, that is
+         * returned in the percentile columns. Defaults to 50 (the median).
+         */
+        public static final String PARAM_PERCENTILE = "percentile";
+
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(AUTHORITY_URI, PATH);
+
+        public static final Uri BY_MANUFACTURER_URI =
+                Uri.withAppendedPath(AUTHORITY_URI, BY_MANUFACTURER_PATH);
+    }
+
+    /**
+     * Values that the sync adapter keeps between syncs, keyed by name.
+     * Inserting a key that already exists replaces its value. Changes to
+     * these rows do not notify the device and manufacturer Uris.
+     */
+    public interface SyncMetadata {
+        /* default */ static final String PATH = "sync-metadata";
+        public static final String KEY = "key";
+        public static final String VALUE = "value";
+
         public static final Uri CONTENT_URI =
                 Uri.withAppendedPath(AUTHORITY_URI, PATH);
     }
+
+    /**
+     * Runtime statistics for {@link DevicesProvider}, returned by calling
+     * {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}
+     * with {@link #METHOD}.
+     */
+    public interface Stats {
+        public static final String METHOD = "stats";
+
+        public static final String NOTIFICATIONS_SENT = "notifications_sent";
+
+        public static final String NOTIFICATIONS_SUPPRESSED =
+                "notifications_suppressed";
+
+        /**
+         * The number of {@link DeviceManufacturer} queries that were
+         * answered from the device table without joining manufacturer.
+         */
+        public static final String DEVICE_ONLY_QUERIES = "device_only_queries";
+
+        /**
+         * The number of times a batch committed part of its work at a
+         * yield point so that another thread could use the database.
+         */
+        public static final String BATCH_YIELDS = "batch_yields";
+
+        /**
+         * A Bundle holding one Bundle per operation and Uri path that has
+         * been called, keyed by e.g. "query device/#".
+         */
+        public static final String OPERATIONS = "operations";
+
+        public static final String CALLS = "calls";
+
+        /**
+         * The number of rows returned by queries, or affected by writes.
+         */
+        public static final String ROWS = "rows";
+
+        public static final String TOTAL_MICROS = "total_micros";
+
+        public static final String MAX_MICROS = "max_micros";
+
+        /**
+         * The number of calls in each latency bucket, as a long array with
+         * one more element than {@link #LATENCY_BUCKET_BOUNDS_MICROS}.
+         */
+        public static final String LATENCY_HISTOGRAM = "latency_histogram";
+
+        /**
+         * The exclusive upper bound of each latency bucket, except the
+         * last, unbounded one.
+         */
+        public static final String LATENCY_BUCKET_BOUNDS_MICROS =
+                "latency_bucket_bounds_micros";
+
+        /**
+         * A Bundle holding the row cache counters of each table, keyed by
+         * table name.
+         */
+        public static final String ROW_CACHES = "row_caches";
+
+        public static final String CACHE_HITS = "hits";
+
+        public static final String CACHE_MISSES = "misses";
+
+        public static final String CACHE_SIZE = "size";
+
+        /**
+         * A Bundle holding the counters of the {@link DeviceStats} result
+         * cache.
+         */
+        public static final String AGGREGATE_CACHE = "aggregate_cache";
+    }
 }
@@ -21,30 +21,38 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
-import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 
 import me.adamstroud.devicedatabase.BuildConfig;
 
 /**
- * An open helper that reads SQL statements from assets.
+ * An open helper that applies the schema migrations in src/main/sql. The
+ * migrations are compiled into the {@link Migrations} class by the build.
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
 /* package */ class DevicesOpenHelper extends SQLiteOpenHelper {
     private static final String TAG =
             DevicesOpenHelper.class.getSimpleName();
-    private static final int SCHEMA_VERSION = 3;
+    private static final int SCHEMA_VERSION = Migrations.LATEST_VERSION;
     private static final String DB_NAME = "devices.db";
 
+    private static DevicesOpenHelper instance;
+
     private final Context context;
 
-    private static DevicesOpenHelper instance;
+    /**
+     * Whether the seed database has been copied, or found to be
+     * unnecessary, since this helper was created. Guarded by this.
+     */
+    private boolean seedDatabaseChecked;
 
     public synchronized static DevicesOpenHelper getInstance(Context ctx) {
         if (instance == null) {
@@ -53,29 +61,59 @@ import me.adamstroud.devicedatabase.BuildConfig;
 
         return instance;
     }
+
     /**
      * Creates a new instance of the simple open helper.
      *
-     * @param context Context to read assets. This will be helped by the
-     *                instance.
+     * @param context Context to open the database and read the seed
+     *                database asset. This will be helped by the instance.
      */
     private DevicesOpenHelper(Context context) {
-        super(context, DB_NAME, null, SCHEMA_VERSION);
+        this(context, DB_NAME);
+    }
 
+    /**
+     * Creates a helper for a database other than the app's, such as a
+     * test database. Everything else should use
+     * {@link #getInstance(Context)}.
+     *
+     * @param name The file name of the database.
+     */
+    /* package */ DevicesOpenHelper(Context context, String name) {
+        super(context, name, null, SCHEMA_VERSION);
         this.context = context;
+    }
 
-        // This will happen in onConfigure for API >= 16
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            SQLiteDatabase db = getWritableDatabase();
-            db.enableWriteAheadLogging();
-            db.execSQL("PRAGMA foreign_keys = ON;");
-        }
+    /**
+     * Opens the database, first copying the seed database if the build
+     * ships one. Like the database itself, the seed database is only
+     * copied when it is first needed, on the calling thread, which should
+     * not be the main thread.
+     */
+    @Override
+    public synchronized SQLiteDatabase getWritableDatabase() {
+        checkSeedDatabase();
+        return super.getWritableDatabase();
+    }
+
+    /**
+     * @see #getWritableDatabase()
+     */
+    @Override
+    public synchronized SQLiteDatabase getReadableDatabase() {
+        checkSeedDatabase();
+        return super.getReadableDatabase();
     }
 
+    /**
+     * Creates the schema by applying every migration. SQLiteOpenHelper
+     * runs this, and {@link #onUpgrade(SQLiteDatabase, int, int)}, inside
+     * of a single transaction.
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
         for (int i = 1; i <= SCHEMA_VERSION; i++) {
-            applySqlFile(db, i);
+            applyMigration(db, i);
         }
     }
 
@@ -84,7 +122,19 @@ import me.adamstroud.devicedatabase.BuildConfig;
                           int oldVersion,
                           int newVersion) {
         for (int i = (oldVersion + 1); i <= newVersion; i++) {
-            applySqlFile(db, i);
+            applyMigration(db, i);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // This will happen in onConfigure for API >= 16
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA foreign_keys = ON;");
         }
     }
 
@@ -97,53 +147,92 @@ import me.adamstroud.devicedatabase.BuildConfig;
         db.setForeignKeyConstraintsEnabled(true);
     }
 
-    private void applySqlFile(SQLiteDatabase db, int version) {
-        BufferedReader reader = null;
+    private void checkSeedDatabase() {
+        if (BuildConfig.SEED_DATABASE && !seedDatabaseChecked) {
+            copySeedDatabase(context, getDatabaseName());
+            seedDatabaseChecked = true;
+        }
+    }
+
+    /**
+     * Copies the prebuilt database from assets if the database has not
+     * been created yet. The seed database is already at
+     * {@link #SCHEMA_VERSION}, so opening it does not run any statements.
+     * If the copy fails, the database is created by
+     * {@link #onCreate(SQLiteDatabase)} instead, without the seed data.
+     */
+    private static void copySeedDatabase(Context context, String name) {
+        final File databaseFile = context.getDatabasePath(name);
+
+        if (databaseFile.exists()) {
+            return;
+        }
+
+        // Copied to a temporary file first so that an interrupted copy is
+        // never opened as the database
+        final File tempFile = new File(databaseFile.getPath() + ".tmp");
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
 
         try {
-            String filename = String.format("%s.%d.sql", DB_NAME, version);
-            final InputStream inputStream =
-                    context.getAssets().open(filename);
-            reader =
-                    new BufferedReader(new InputStreamReader(inputStream));
-
-            final StringBuilder statement = new StringBuilder();
-
-            for (String line; (line = reader.readLine()) != null;) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "Reading line -> " + line);
-                }
-
-                // Ignore empty lines
-                if (!TextUtils.isEmpty(line) && !line.startsWith("--")) {
-                    statement.append(line.trim());
-                }
-
-                if (line.endsWith(";")) {
-                    if (BuildConfig.DEBUG) {
-                        Log.d(TAG, "Running statement " + statement);
-                    }
-
-                    db.execSQL(statement.toString());
-                    statement.setLength(0);
-                }
+            final File databaseDir = databaseFile.getParentFile();
+
+            if (!databaseDir.isDirectory() && !databaseDir.mkdirs()) {
+                throw new IOException("Could not create " + databaseDir);
             }
 
+            inputStream = context.getAssets().open(DB_NAME);
+            outputStream = new FileOutputStream(tempFile);
+
+            final byte[] buffer = new byte[8192];
+
+            for (int count; (count = inputStream.read(buffer)) != -1;) {
+                outputStream.write(buffer, 0, count);
+            }
+
+            outputStream.close();
+            outputStream = null;
+
+            if (!tempFile.renameTo(databaseFile)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
         } catch (IOException e) {
-            Log.e(TAG, "Could not apply SQL file", e);
+            Log.e(TAG, "Could not copy seed database", e);
         } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    Log.w(TAG, "Could not close reader", e);
-                }
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "Could not delete " + tempFile);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close stream", e);
             }
         }
     }
 
+    private void applyMigration(SQLiteDatabase db, int version) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Migrating schema to version " + version);
+        }
+
+        for (String statement : Migrations.forVersion(version)) {
+            db.execSQL(statement);
+        }
+    }
+
     public interface Tables {
         String DEVICE = "device";
         String MANUFACTURER = "manufacturer";
+        String DEVICE_FTS = "device_fts";
+        String DEVICE_MANUFACTURER = "device_manufacturer";
+        String SYNC_METADATA = "sync_metadata";
     }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@
 
 package me.adamstroud.devicedatabase.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
@@ -25,16 +26,39 @@ import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
 import android.util.SparseArray;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.adamstroud.devicedatabase.BuildConfig;
 
 /**
  * Provides access to Device data.
@@ -52,10 +76,177 @@ public class DevicesProvider extends ContentProvider {
     private static final int CODE_ALL_MANUFACTURERS = 102;
     private static final int CODE_MANUFACTURER_ID = 103;
     private static final int CODE_DEVICE_MANUFACTURER = 104;
+    private static final int CODE_DEVICE_SEARCH = 105;
+    private static final int CODE_DEVICE_STATS = 106;
+    private static final int CODE_MANUFACTURER_DEVICE_STATS = 107;
+    private static final int CODE_SYNC_METADATA = 108;
+
+    /**
+     * Reads {@link DevicesContract.DeviceManufacturer} from the
+     * trigger-maintained device_manufacturer table.
+     */
+    /* package */ static final int DEVICE_MANUFACTURER_DENORMALIZED = 0;
+
+    /**
+     * Reads {@link DevicesContract.DeviceManufacturer} from the
+     * device/manufacturer join.
+     */
+    /* package */ static final int DEVICE_MANUFACTURER_JOIN = 1;
+
+    /**
+     * Reads {@link DevicesContract.DeviceManufacturer} from the device table
+     * alone when the query allows it, and from the join otherwise.
+     */
+    /* package */ static final int DEVICE_MANUFACTURER_NORMALIZED = 2;
+
+    /**
+     * Orders search results by the number of term matches. offsets()
+     * returns four space-separated integers per match, so the number of
+     * matches is the number of integers, one more than the number of
+     * spaces, divided by four.
+     */
+    private static final String SEARCH_RANK_ORDER = String.format(
+            "(length(offsets(%1$s)) - length(replace(offsets(%1$s), ' ', ''))"
+                    + " + 1) / 4 DESC, %2$s",
+            DevicesOpenHelper.Tables.DEVICE_FTS,
+            DevicesContract.DeviceSearch.MODEL);
+
+    private static final String DEFAULT_SEARCH_LIMIT = "50";
+
+    private static final int DEFAULT_PERCENTILE = 50;
+
+    /**
+     * The maximum number of {@link DevicesContract.DeviceStats} results that
+     * are cached.
+     */
+    private static final int AGGREGATE_CACHE_SIZE = 16;
+
+    /**
+     * How long applyBatch sleeps at a yield point, after committing, to
+     * let the waiting thread take the database.
+     */
+    private static final long YIELD_SLEEP_MS = 10;
+
+    /**
+     * The number of rows of a table that a batch notifies one by one. If a
+     * batch writes more rows of a table, the table's Uri is notified
+     * instead.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 16;
+
+    private static final Pattern SEARCH_TERM_SEPARATOR =
+            Pattern.compile("[^\\p{L}\\p{N}]+");
 
     private static final SparseArray<String> URI_CODE_TABLE_MAP =
             new SparseArray<>();
 
+    /**
+     * The Uri path of each code, used to label the provider statistics.
+     */
+    private static final SparseArray<String> URI_CODE_PATH_MAP =
+            new SparseArray<>();
+
+    /**
+     * The columns that can be inserted with a compiled statement in
+     * {@link #bulkInsert(Uri, ContentValues[])}. Each statement names the
+     * columns that its rows hold, in this order.
+     */
+    private static final SparseArray<String[]> URI_CODE_INSERT_COLUMNS_MAP =
+            new SparseArray<>();
+
+    /**
+     * The columns that identify a row independently of its _id. These are
+     * used to find the existing row when an insert conflicts.
+     */
+    private static final SparseArray<String[]> URI_CODE_NATURAL_KEY_MAP =
+            new SparseArray<>();
+
+    /**
+     * Maps the {@link DevicesContract.DeviceManufacturer} columns onto the
+     * device/manufacturer join.
+     */
+    private static final Map<String, String> JOIN_PROJECTION_MAP =
+            new HashMap<>();
+
+    /**
+     * Maps the {@link DevicesContract.DeviceManufacturer} columns onto the
+     * trigger-maintained device_manufacturer table.
+     */
+    private static final Map<String, String> DENORMALIZED_PROJECTION_MAP =
+            new HashMap<>();
+
+    /**
+     * Maps the {@link DevicesContract.DeviceManufacturer} columns that are
+     * stored in the device table onto that table alone, for queries that
+     * do not need the join.
+     */
+    private static final Map<String, String> DEVICE_ONLY_PROJECTION_MAP =
+            new HashMap<>();
+
+    /**
+     * Maps the {@link DevicesContract.DeviceSearch} columns onto the
+     * device_fts table.
+     */
+    private static final Map<String, String> SEARCH_PROJECTION_MAP =
+            new HashMap<>();
+
+    /**
+     * The device column that each {@link DevicesContract.DeviceStats}
+     * percentile column is computed from.
+     */
+    private static final Map<String, String> PERCENTILE_COLUMN_MAP =
+            new HashMap<>();
+
+    /**
+     * The columns of {@link DevicesContract.DeviceStats#CONTENT_URI} when
+     * the projection is null.
+     */
+    private static final String[] DEVICE_STATS_COLUMNS = {
+            DevicesContract.DeviceStats.DEVICE_COUNT,
+            DevicesContract.DeviceStats.AVG_DISPLAY_SIZE_INCHES,
+            DevicesContract.DeviceStats.AVG_MEMORY_MB,
+            DevicesContract.DeviceStats.PERCENTILE_DISPLAY_SIZE_INCHES,
+            DevicesContract.DeviceStats.PERCENTILE_MEMORY_MB
+    };
+
+    /**
+     * The columns of {@link DevicesContract.DeviceStats#BY_MANUFACTURER_URI}
+     * when the projection is null.
+     */
+    private static final String[] MANUFACTURER_DEVICE_STATS_COLUMNS = {
+            DevicesContract.DeviceStats.MANUFACTURER_ID,
+            DevicesContract.DeviceStats.SHORT_NAME,
+            DevicesContract.DeviceStats.DEVICE_COUNT,
+            DevicesContract.DeviceStats.AVG_DISPLAY_SIZE_INCHES,
+            DevicesContract.DeviceStats.AVG_MEMORY_MB,
+            DevicesContract.DeviceStats.PERCENTILE_DISPLAY_SIZE_INCHES,
+            DevicesContract.DeviceStats.PERCENTILE_MEMORY_MB
+    };
+
+    /**
+     * Identifiers that can only be resolved with the manufacturer table.
+     */
+    private static final Set<String> MANUFACTURER_IDENTIFIERS =
+            new HashSet<>();
+
+    private static final Pattern STRING_LITERAL =
+            Pattern.compile("'(?:[^']|'')*'");
+
+    private static final Pattern IDENTIFIER =
+            Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    /**
+     * The maximum number of compiled by-ID update and delete statements.
+     * Each table needs one delete statement and one update statement per
+     * distinct set of updated columns.
+     */
+    private static final int STATEMENT_CACHE_SIZE = 16;
+
+    /**
+     * The maximum number of rows cached for each table.
+     */
+    private static final int CACHE_SIZE = 100;
+
     private static final UriMatcher URI_MATCHER =
             new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -72,6 +263,126 @@ public class DevicesProvider extends ContentProvider {
         URI_CODE_TABLE_MAP.put(CODE_MANUFACTURER_ID,
                 DevicesOpenHelper.Tables.MANUFACTURER);
 
+        URI_CODE_TABLE_MAP.put(CODE_SYNC_METADATA,
+                DevicesOpenHelper.Tables.SYNC_METADATA);
+
+        URI_CODE_PATH_MAP.put(CODE_ALL_DEVICES,
+                DevicesContract.Device.PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_DEVICE_ID,
+                DevicesContract.Device.PATH + "/#");
+
+        URI_CODE_PATH_MAP.put(CODE_ALL_MANUFACTURERS,
+                DevicesContract.Manufacturer.PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_MANUFACTURER_ID,
+                DevicesContract.Manufacturer.PATH + "/#");
+
+        URI_CODE_PATH_MAP.put(CODE_DEVICE_MANUFACTURER,
+                DevicesContract.DeviceManufacturer.PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_DEVICE_SEARCH,
+                DevicesContract.DeviceSearch.PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_DEVICE_STATS,
+                DevicesContract.DeviceStats.PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_MANUFACTURER_DEVICE_STATS,
+                DevicesContract.DeviceStats.BY_MANUFACTURER_PATH);
+
+        URI_CODE_PATH_MAP.put(CODE_SYNC_METADATA,
+                DevicesContract.SyncMetadata.PATH);
+
+        URI_CODE_INSERT_COLUMNS_MAP.put(CODE_ALL_DEVICES, new String[] {
+                DevicesContract.Device.MODEL,
+                DevicesContract.Device.NICKNAME,
+                DevicesContract.Device.MEMORY_MB,
+                DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                DevicesContract.Device.MANUFACTURER_ID,
+                DevicesContract.Device.SYNC_TOKEN
+        });
+
+        URI_CODE_INSERT_COLUMNS_MAP.put(CODE_ALL_MANUFACTURERS, new String[] {
+                DevicesContract.Manufacturer.SHORT_NAME,
+                DevicesContract.Manufacturer.LONG_NAME,
+                DevicesContract.Manufacturer.SYNC_TOKEN
+        });
+
+        URI_CODE_NATURAL_KEY_MAP.put(CODE_ALL_DEVICES, new String[] {
+                DevicesContract.Device.MANUFACTURER_ID,
+                DevicesContract.Device.MODEL
+        });
+
+        URI_CODE_NATURAL_KEY_MAP.put(CODE_ALL_MANUFACTURERS, new String[] {
+                DevicesContract.Manufacturer.SHORT_NAME
+        });
+
+        JOIN_PROJECTION_MAP.put(DevicesContract.DeviceManufacturer.MODEL,
+                DevicesContract.DeviceManufacturer.MODEL);
+
+        JOIN_PROJECTION_MAP.put(DevicesContract.DeviceManufacturer.SHORT_NAME,
+                DevicesContract.DeviceManufacturer.SHORT_NAME);
+
+        JOIN_PROJECTION_MAP.put(DevicesContract.DeviceManufacturer.DEVICE_ID,
+                String.format("%s.%s AS %s",
+                        DevicesOpenHelper.Tables.DEVICE,
+                        DevicesContract.Device._ID,
+                        DevicesContract.DeviceManufacturer.DEVICE_ID));
+
+        JOIN_PROJECTION_MAP.put(DevicesContract
+                        .DeviceManufacturer.MANUFACTURER_ID,
+                String.format("%s.%s AS %s",
+                        DevicesOpenHelper.Tables.MANUFACTURER,
+                        DevicesContract.Manufacturer._ID,
+                        DevicesContract.DeviceManufacturer.MANUFACTURER_ID));
+
+        for (String column : JOIN_PROJECTION_MAP.keySet()) {
+            DENORMALIZED_PROJECTION_MAP.put(column, column);
+        }
+
+        DEVICE_ONLY_PROJECTION_MAP.put(DevicesContract.DeviceManufacturer.MODEL,
+                DevicesContract.DeviceManufacturer.MODEL);
+
+        DEVICE_ONLY_PROJECTION_MAP.put(DevicesContract
+                        .DeviceManufacturer
+                        .DEVICE_ID,
+                JOIN_PROJECTION_MAP.get(DevicesContract
+                        .DeviceManufacturer
+                        .DEVICE_ID));
+
+        // Equal to manufacturer._id for every row of the join
+        DEVICE_ONLY_PROJECTION_MAP.put(DevicesContract
+                        .DeviceManufacturer
+                        .MANUFACTURER_ID,
+                DevicesContract.DeviceManufacturer.MANUFACTURER_ID);
+
+        PERCENTILE_COLUMN_MAP.put(DevicesContract
+                        .DeviceStats
+                        .PERCENTILE_DISPLAY_SIZE_INCHES,
+                DevicesContract.Device.DISPLAY_SIZE_INCHES);
+
+        PERCENTILE_COLUMN_MAP.put(DevicesContract
+                        .DeviceStats
+                        .PERCENTILE_MEMORY_MB,
+                DevicesContract.Device.MEMORY_MB);
+
+        // The docid of each row is the _id of the device
+        SEARCH_PROJECTION_MAP.put(DevicesContract.DeviceSearch.DEVICE_ID,
+                String.format("docid AS %s",
+                        DevicesContract.DeviceSearch.DEVICE_ID));
+
+        for (String column : new String[] {
+                DevicesContract.DeviceSearch.MODEL,
+                DevicesContract.DeviceSearch.NICKNAME,
+                DevicesContract.DeviceSearch.SHORT_NAME,
+                DevicesContract.DeviceSearch.LONG_NAME}) {
+            SEARCH_PROJECTION_MAP.put(column, column);
+        }
+
+        MANUFACTURER_IDENTIFIERS.add(DevicesOpenHelper.Tables.MANUFACTURER);
+        MANUFACTURER_IDENTIFIERS.add(DevicesContract.Manufacturer.SHORT_NAME);
+        MANUFACTURER_IDENTIFIERS.add(DevicesContract.Manufacturer.LONG_NAME);
+
         URI_MATCHER.addURI(DevicesContract.AUTHORITY,
                 DevicesContract.Device.PATH,
                 CODE_ALL_DEVICES);
@@ -91,45 +402,268 @@ public class DevicesProvider extends ContentProvider {
         URI_MATCHER.addURI(DevicesContract.AUTHORITY,
                 DevicesContract.DeviceManufacturer.PATH,
                 CODE_DEVICE_MANUFACTURER);
+
+        URI_MATCHER.addURI(DevicesContract.AUTHORITY,
+                DevicesContract.DeviceSearch.PATH,
+                CODE_DEVICE_SEARCH);
+
+        URI_MATCHER.addURI(DevicesContract.AUTHORITY,
+                DevicesContract.DeviceStats.PATH,
+                CODE_DEVICE_STATS);
+
+        URI_MATCHER.addURI(DevicesContract.AUTHORITY,
+                DevicesContract.DeviceStats.BY_MANUFACTURER_PATH,
+                CODE_MANUFACTURER_DEVICE_STATS);
+
+        URI_MATCHER.addURI(DevicesContract.AUTHORITY,
+                DevicesContract.SyncMetadata.PATH,
+                CODE_SYNC_METADATA);
     }
 
+    /**
+     * The Uris that have changed during the current thread's batch. While
+     * the set is non-null, notifications are collected (and de-duplicated)
+     * instead of being sent, and are only sent once the batch's transaction
+     * has been committed.
+     */
+    private final ThreadLocal<Set<Uri>> pendingNotifications =
+            new ThreadLocal<>();
+
+    /**
+     * The rows that have been written during the current thread's batch.
+     * Other threads can cache the committed version of these rows until
+     * the batch ends, so they are invalidated again at that point.
+     */
+    private final ThreadLocal<Set<Uri>> pendingInvalidations =
+            new ThreadLocal<>();
+
+    private final AtomicLong sentNotificationCount = new AtomicLong();
+    private final AtomicLong suppressedNotificationCount = new AtomicLong();
+    private final AtomicLong deviceOnlyQueryCount = new AtomicLong();
+    private final AtomicLong yieldCount = new AtomicLong();
+
+    private final ProviderStats operationStats =
+            new ProviderStats(URI_CODE_PATH_MAP);
+
+    private final StatementCache statementCache =
+            new StatementCache(STATEMENT_CACHE_SIZE);
+
+    /**
+     * The {@link RowCache} of each table, keyed by table name.
+     */
+    private final Map<String, RowCache> rowCaches = new HashMap<>();
+
+    /**
+     * Holds {@link DevicesContract.DeviceStats} results until the next
+     * change notification.
+     */
+    private final ResultCache aggregateCache =
+            new ResultCache(AGGREGATE_CACHE_SIZE);
+
     private DevicesOpenHelper helper;
 
+    /**
+     * How {@link DevicesContract.DeviceManufacturer} is read, one of the
+     * DEVICE_MANUFACTURER constants. Only tests change it, to compare the
+     * sources.
+     */
+    private int deviceManufacturerSource =
+            (BuildConfig.DENORMALIZED_DEVICE_MANUFACTURER
+                    ? DEVICE_MANUFACTURER_DENORMALIZED
+                    : DEVICE_MANUFACTURER_NORMALIZED);
+
     public DevicesProvider() {
-        // no-op
+        this(null);
+    }
+
+    /**
+     * @param helper The helper of the database to serve, or null to serve
+     *               the app's database.
+     */
+    /* package */ DevicesProvider(DevicesOpenHelper helper) {
+        this.helper = helper;
+
+        for (String table : new String[] {
+                DevicesOpenHelper.Tables.DEVICE,
+                DevicesOpenHelper.Tables.MANUFACTURER}) {
+            rowCaches.put(table, new RowCache(table, CACHE_SIZE));
+        }
     }
 
     @Override
     public boolean onCreate() {
-        helper = DevicesOpenHelper.getInstance(getContext());
+        if (helper == null) {
+            helper = DevicesOpenHelper.getInstance(getContext());
+        }
+
         return true;
     }
 
+    /**
+     * @param source One of the DEVICE_MANUFACTURER constants.
+     */
+    /* package */ void setDeviceManufacturerSource(int source) {
+        deviceManufacturerSource = source;
+    }
+
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
+        final long startNanos = System.nanoTime();
         long id;
         final int code = URI_MATCHER.match(uri);
         switch (code) {
             case CODE_ALL_DEVICES:
             case CODE_ALL_MANUFACTURERS:
-                id = helper
-                        .getWritableDatabase()
-                        .insertOrThrow(URI_CODE_TABLE_MAP.get(code),
-                                null,
-                                values);
+                final String onConflict = uri
+                        .getQueryParameter(DevicesContract.PARAM_ON_CONFLICT);
+
+                if (onConflict == null) {
+                    id = helper
+                            .getWritableDatabase()
+                            .insertOrThrow(URI_CODE_TABLE_MAP.get(code),
+                                    null,
+                                    values);
+                } else {
+                    id = insertOnConflict(code, values, onConflict);
+                }
                 break;
+            case CODE_SYNC_METADATA:
+                helper.getWritableDatabase()
+                        .insertWithOnConflict(URI_CODE_TABLE_MAP.get(code),
+                                null,
+                                values,
+                                SQLiteDatabase.CONFLICT_REPLACE);
+
+                notifyUri(uri);
+                operationStats.record(ProviderStats.OPERATION_INSERT,
+                        code,
+                        startNanos,
+                        1);
+
+                // Rows are identified by key rather than by _id
+                return uri;
             default:
                 throw new IllegalArgumentException("Invalid Uri: " + uri);
         }
 
-        notifyUris(uri);
-        return ContentUris.withAppendedId(uri, id);
+        final Uri contentUri = uri.buildUpon().clearQuery().build();
+        final Uri rowUri = ContentUris.withAppendedId(contentUri, id);
+
+        // The insert may have updated an existing row
+        invalidateRows(rowUri);
+        notifyUris(rowUri);
+        operationStats.record(ProviderStats.OPERATION_INSERT,
+                code,
+                startNanos,
+                1);
+
+        return rowUri;
+    }
+
+    /**
+     * Inserts a row, resolving a conflict with an existing natural key as
+     * described by {@link DevicesContract#PARAM_ON_CONFLICT}.
+     *
+     * @return The ID of the inserted row, or of the existing row if there
+     *         was a conflict.
+     */
+    private long insertOnConflict(int code,
+                                  ContentValues values,
+                                  String onConflict) {
+        final boolean update = isUpdateOnConflict(onConflict);
+        final String table = URI_CODE_TABLE_MAP.get(code);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final long startNanos = System.nanoTime();
+
+        db.beginTransaction();
+
+        try {
+            long id = db.insertWithOnConflict(table,
+                    null,
+                    values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+
+            if (id == -1) {
+                id = queryIdByNaturalKey(db, code, values);
+
+                if (update) {
+                    // The key columns already hold these values, and
+                    // leaving them out keeps the triggers on them from
+                    // rewriting the derived tables
+                    final ContentValues updateValues =
+                            new ContentValues(values);
+
+                    for (String keyColumn
+                            : URI_CODE_NATURAL_KEY_MAP.get(code)) {
+                        updateValues.remove(keyColumn);
+                    }
+
+                    if (updateValues.size() > 0) {
+                        db.update(table,
+                                updateValues,
+                                BaseColumns._ID + " = ?",
+                                new String[] {Long.toString(id)});
+                    }
+                }
+            }
+
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+
+            operationStats.record(ProviderStats.OPERATION_TRANSACTION,
+                    code,
+                    startNanos,
+                    1);
+        }
+    }
+
+    private static boolean isUpdateOnConflict(String onConflict) {
+        if (DevicesContract.ON_CONFLICT_UPDATE.equals(onConflict)) {
+            return true;
+        } else if (DevicesContract.ON_CONFLICT_IGNORE.equals(onConflict)) {
+            return false;
+        } else {
+            throw new IllegalArgumentException("Invalid conflict " +
+                    "resolution: " + onConflict);
+        }
+    }
+
+    private static long queryIdByNaturalKey(SQLiteDatabase db,
+                                            int code,
+                                            ContentValues values) {
+        final String[] keyColumns = URI_CODE_NATURAL_KEY_MAP.get(code);
+        final StringBuilder sql = new StringBuilder("SELECT ")
+                .append(BaseColumns._ID)
+                .append(" FROM ")
+                .append(URI_CODE_TABLE_MAP.get(code));
+
+        final String[] selectionArgs = new String[keyColumns.length];
+
+        for (int i = 0; i < keyColumns.length; i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ")
+                    .append(keyColumns[i])
+                    .append(" = ?");
+
+            selectionArgs[i] = values.getAsString(keyColumns[i]);
+        }
+
+        try {
+            return DatabaseUtils.longForQuery(db,
+                    sql.toString(),
+                    selectionArgs);
+        } catch (SQLiteDoneException e) {
+            // The insert was ignored for a reason other than the natural key
+            throw new SQLiteConstraintException("Could not insert " + values);
+        }
     }
 
     @Override
     public int delete(@NonNull Uri uri,
                       String selection,
                       String[] selectionArgs) {
+        final long startNanos = System.nanoTime();
         int rowCount;
 
         final int code = URI_MATCHER.match(uri);
@@ -142,20 +676,31 @@ public class DevicesProvider extends ContentProvider {
                                 selection,
                                 selectionArgs);
                 break;
+            case CODE_SYNC_METADATA:
+                rowCount = helper
+                        .getWritableDatabase()
+                        .delete(URI_CODE_TABLE_MAP.get(code),
+                                selection,
+                                selectionArgs);
+
+                notifyUri(uri);
+                operationStats.record(ProviderStats.OPERATION_DELETE,
+                        code,
+                        startNanos,
+                        rowCount);
+
+                return rowCount;
             case CODE_DEVICE_ID:
             case CODE_MANUFACTURER_ID:
                 if (selection == null && selectionArgs == null) {
-                    selection = BaseColumns._ID + " = ?";
-
-                    selectionArgs = new String[] {
-                        uri.getLastPathSegment()
-                    };
-
-                    rowCount = helper
-                            .getWritableDatabase()
-                            .delete(URI_CODE_TABLE_MAP.get(code),
-                                    selection,
-                                    selectionArgs);
+                    rowCount = statementCache
+                            .executeUpdateDelete(helper.getWritableDatabase(),
+                                    "DELETE FROM "
+                                            + URI_CODE_TABLE_MAP.get(code)
+                                            + " WHERE "
+                                            + BaseColumns._ID
+                                            + " = ?",
+                                    ContentUris.parseId(uri));
                 } else {
                     throw new IllegalArgumentException("Selection must be " +
                             "null when specifying ID as part of uri.");
@@ -165,8 +710,20 @@ public class DevicesProvider extends ContentProvider {
                 throw new IllegalArgumentException("Invalid Uri: " + uri);
         }
 
+        invalidateRows(uri);
         notifyUris(uri);
 
+        if (code == CODE_ALL_MANUFACTURERS || code == CODE_MANUFACTURER_ID) {
+            // Devices are deleted by the ON DELETE CASCADE constraint
+            invalidateRows(DevicesContract.Device.CONTENT_URI);
+            notifyUri(DevicesContract.Device.CONTENT_URI);
+        }
+
+        operationStats.record(ProviderStats.OPERATION_DELETE,
+                code,
+                startNanos,
+                rowCount);
+
         return rowCount;
     }
 
@@ -176,187 +733,1358 @@ public class DevicesProvider extends ContentProvider {
                         String selection,
                         String[] selectionArgs,
                         String sortOrder) throws IllegalArgumentException {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Queries with a signal that cancels the query in SQLite, including
+     * while the first window is being filled.
+     *
+     * <p>Releases before API 16 call this with a null signal, in which case
+     * no API 16 method is called.</p>
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Cursor query(@NonNull Uri uri,
+                        String[] projection,
+                        String selection,
+                        String[] selectionArgs,
+                        String sortOrder,
+                        CancellationSignal cancellationSignal)
+            throws IllegalArgumentException {
+        final long startNanos = System.nanoTime();
         Cursor cursor;
-        if (projection == null) {
+        final int code = URI_MATCHER.match(uri);
+
+        // A by-ID query without a projection returns every column of the
+        // row, as the row cache can serve it
+        if (projection == null
+                && code != CODE_DEVICE_ID
+                && code != CODE_MANUFACTURER_ID) {
             throw new IllegalArgumentException("Projection can't be null");
         }
 
-        sortOrder = (sortOrder == null ? BaseColumns._ID : sortOrder);
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+
+        final boolean defaultSortOrder = (sortOrder == null);
+        sortOrder = (defaultSortOrder ? BaseColumns._ID : sortOrder);
 
         SQLiteDatabase database = helper.getReadableDatabase();
 
-        final int code = URI_MATCHER.match(uri);
         switch (code) {
             case CODE_ALL_DEVICES:
             case CODE_ALL_MANUFACTURERS:
-                cursor = database.query(URI_CODE_TABLE_MAP.get(code),
+                cursor = query(database,
+                        URI_CODE_TABLE_MAP.get(code),
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                        sortOrder,
+                        cancellationSignal);
                 break;
             case CODE_DEVICE_ID:
             case CODE_MANUFACTURER_ID:
-                if (selection == null) {
-                    selection = BaseColumns._ID
-                            + " = "
-                            + uri.getLastPathSegment();
+                if (selection == null && selectionArgs == null) {
+                    // The ID is bound rather than appended so that every
+                    // lookup shares one statement in SQLite's cache
+                    selection = BaseColumns._ID + " = ?";
+
+                    selectionArgs = new String[] {
+                            uri.getLastPathSegment()
+                    };
                 } else {
                     throw new IllegalArgumentException("Selection must " +
                             "be null when specifying ID as part of uri.");
                 }
-                cursor = database.query(URI_CODE_TABLE_MAP.get(code),
+
+                cursor = rowCaches.get(URI_CODE_TABLE_MAP.get(code))
+                        .query(database, ContentUris.parseId(uri), projection);
+
+                if (cursor == null) {
+                    cursor = query(database,
+                            URI_CODE_TABLE_MAP.get(code),
+                            projection,
+                            selection,
+                            selectionArgs,
+                            sortOrder,
+                            cancellationSignal);
+                }
+                break;
+            case CODE_DEVICE_MANUFACTURER:
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                final String modelColumn;
+                final String idColumn;
+
+                if (deviceManufacturerSource
+                        == DEVICE_MANUFACTURER_DENORMALIZED) {
+                    builder.setTables(DevicesOpenHelper
+                            .Tables
+                            .DEVICE_MANUFACTURER);
+
+                    builder.setProjectionMap(DENORMALIZED_PROJECTION_MAP);
+
+                    modelColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE_MANUFACTURER,
+                            DevicesContract.DeviceManufacturer.MODEL);
+
+                    idColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE_MANUFACTURER,
+                            DevicesContract.DeviceManufacturer.DEVICE_ID);
+                } else if (deviceManufacturerSource
+                        == DEVICE_MANUFACTURER_NORMALIZED
+                        && isDeviceOnlyQuery(projection,
+                        selection,
+                        (defaultSortOrder ? null : sortOrder))) {
+                    builder.setTables(DevicesOpenHelper.Tables.DEVICE);
+                    builder.setProjectionMap(DEVICE_ONLY_PROJECTION_MAP);
+
+                    // The join drops devices without a manufacturer, and
+                    // the foreign key guarantees that every other device
+                    // has one
+                    builder.appendWhere(String.format("%s.%s IS NOT NULL",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device.MANUFACTURER_ID));
+
+                    modelColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device.MODEL);
+
+                    idColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device._ID);
+
+                    deviceOnlyQueryCount.incrementAndGet();
+                } else {
+                    builder.setTables(String
+                            .format("%s INNER JOIN %s ON (%s.%s=%s.%s)",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesOpenHelper.Tables.MANUFACTURER,
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device.MANUFACTURER_ID,
+                            DevicesOpenHelper.Tables.MANUFACTURER,
+                            DevicesContract.Manufacturer._ID));
+
+                    builder.setProjectionMap(JOIN_PROJECTION_MAP);
+
+                    modelColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device.MODEL);
+
+                    idColumn = String.format("%s.%s",
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device._ID);
+                }
+
+                if (defaultSortOrder) {
+                    sortOrder = modelColumn + ", " + idColumn;
+                }
+
+                String limit = null;
+                final String pageSize = uri.getQueryParameter(DevicesContract
+                        .DeviceManufacturer
+                        .PARAM_PAGE_SIZE);
+
+                if (pageSize != null) {
+                    if (!defaultSortOrder) {
+                        throw new IllegalArgumentException("Sort order must "
+                                + "be null when specifying a page size.");
+                    }
+
+                    final String afterModel = uri.getQueryParameter(DevicesContract
+                            .DeviceManufacturer
+                            .PARAM_AFTER_MODEL);
+
+                    if (afterModel != null) {
+                        // Written so that the model index can seek to the
+                        // start of the page
+                        selection = DatabaseUtils.concatenateWhere(selection,
+                                String.format("%1$s >= ? AND (%1$s > ? OR %2$s > ?)",
+                                        modelColumn,
+                                        idColumn));
+
+                        selectionArgs = DatabaseUtils
+                                .appendSelectionArgs(selectionArgs,
+                                        new String[] {
+                                                afterModel,
+                                                afterModel,
+                                                uri.getQueryParameter(DevicesContract
+                                                        .DeviceManufacturer
+                                                        .PARAM_AFTER_DEVICE_ID)
+                                        });
+                    }
+
+                    limit = Integer.toString(Integer.parseInt(pageSize));
+                }
+
+                cursor = query(builder,
+                        database,
                         projection,
                         selection,
                         selectionArgs,
                         null,
-                        null,
-                        sortOrder);
+                        sortOrder,
+                        limit,
+                        cancellationSignal);
+
                 break;
-            case CODE_DEVICE_MANUFACTURER:
-                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            case CODE_DEVICE_SEARCH:
+                final String match = buildMatchExpression(uri
+                        .getQueryParameter(DevicesContract
+                                .DeviceSearch
+                                .PARAM_QUERY));
 
-                builder.setTables(String
-                        .format("%s INNER JOIN %s ON (%s.%s=%s.%s)",
-                        DevicesOpenHelper.Tables.DEVICE,
-                        DevicesOpenHelper.Tables.MANUFACTURER,
-                        DevicesOpenHelper.Tables.DEVICE,
-                        DevicesContract.Device.MANUFACTURER_ID,
-                        DevicesOpenHelper.Tables.MANUFACTURER,
-                        DevicesContract.Manufacturer._ID));
+                if (match == null) {
+                    cursor = new MatrixCursor(projection, 0);
+                    break;
+                }
 
-                final Map<String, String> projectionMap = new HashMap<>();
-                projectionMap.put(DevicesContract.DeviceManufacturer.MODEL,
-                        DevicesContract.DeviceManufacturer.MODEL);
+                final SQLiteQueryBuilder searchBuilder =
+                        new SQLiteQueryBuilder();
 
-                projectionMap
-                        .put(DevicesContract.DeviceManufacturer.SHORT_NAME,
-                        DevicesContract.DeviceManufacturer.SHORT_NAME);
+                searchBuilder.setTables(DevicesOpenHelper.Tables.DEVICE_FTS);
+                searchBuilder.setProjectionMap(SEARCH_PROJECTION_MAP);
 
-                projectionMap
-                        .put(DevicesContract.DeviceManufacturer.DEVICE_ID,
-                        String.format("%s.%s AS %s",
-                                DevicesOpenHelper.Tables.DEVICE,
-                                DevicesContract.Device._ID,
-                                DevicesContract.DeviceManufacturer.DEVICE_ID));
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        DevicesOpenHelper.Tables.DEVICE_FTS + " MATCH ?");
 
-                projectionMap.put(DevicesContract
-                        .DeviceManufacturer.MANUFACTURER_ID,
-                        String.format("%s.%s AS %s",
-                                DevicesOpenHelper.Tables.MANUFACTURER,
-                                DevicesContract.Manufacturer._ID,
-                                DevicesContract
-                                        .DeviceManufacturer.MANUFACTURER_ID));
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] {match});
 
-                builder.setProjectionMap(projectionMap);
+                final String searchLimit = uri.getQueryParameter(DevicesContract
+                        .DeviceSearch
+                        .PARAM_LIMIT);
 
-                cursor = builder.query(database,
+                cursor = query(searchBuilder,
+                        database,
                         projection,
                         selection,
                         selectionArgs,
                         null,
-                        null,
-                        sortOrder);
+                        (defaultSortOrder ? SEARCH_RANK_ORDER : sortOrder),
+                        (searchLimit == null
+                                ? DEFAULT_SEARCH_LIMIT
+                                : Integer.toString(Integer.parseInt(searchLimit))),
+                        cancellationSignal);
+                break;
+            case CODE_DEVICE_STATS:
+            case CODE_MANUFACTURER_DEVICE_STATS:
+                if (selection != null || selectionArgs != null) {
+                    throw new IllegalArgumentException("Selection must be " +
+                            "null for aggregate Uris.");
+                }
 
+                cursor = queryDeviceStats(database,
+                        uri,
+                        code == CODE_MANUFACTURER_DEVICE_STATS,
+                        projection,
+                        (defaultSortOrder ? null : sortOrder),
+                        cancellationSignal);
+                break;
+            case CODE_SYNC_METADATA:
+                // The table has no _id column
+                cursor = query(database,
+                        URI_CODE_TABLE_MAP.get(code),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        (defaultSortOrder
+                                ? DevicesContract.SyncMetadata.KEY
+                                : sortOrder),
+                        cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Invalid Uri: " + uri);
         }
 
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        // getCount() runs the query, so the latency includes filling the
+        // first window rather than only compiling the statement. It is
+        // also where a cancelled query stops.
+        operationStats.record(ProviderStats.OPERATION_QUERY,
+                code,
+                startNanos,
+                cursor.getCount());
+
         return cursor;
     }
 
-    @Override
-    public int update(@NonNull Uri uri,
-                      ContentValues values,
-                      String selection,
-                      String[] selectionArgs) {
-        int rowCount;
+    /**
+     * Queries a table, passing the signal on if there is one.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor query(SQLiteDatabase database,
+                                String table,
+                                String[] projection,
+                                String selection,
+                                String[] selectionArgs,
+                                String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return database.query(table,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder);
+        }
 
-        final int code = URI_MATCHER.match(uri);
-        switch (code) {
-            case CODE_ALL_DEVICES:
-            case CODE_ALL_MANUFACTURERS:
-                rowCount = helper
-                        .getWritableDatabase()
-                        .update(URI_CODE_TABLE_MAP.get(code),
-                                values,
-                                selection,
-                                selectionArgs);
-                break;
-            case CODE_DEVICE_ID:
-            case CODE_MANUFACTURER_ID:
-                if (selection == null
-                        && selectionArgs == null) {
-                    selection = BaseColumns._ID + " = ?";
+        return database.query(false,
+                table,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder,
+                null,
+                cancellationSignal);
+    }
 
-                    selectionArgs = new String[] {
-                            uri.getLastPathSegment()
-                    };
-                } else {
-                    throw new IllegalArgumentException("Selection must be " +
-                            "null when specifying ID as part of uri.");
-                }
-                rowCount = helper
-                        .getWritableDatabase()
-                        .update(URI_CODE_TABLE_MAP.get(code),
-                                values,
-                                selection,
-                                selectionArgs);
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid Uri: " + uri);
+    /**
+     * Runs a builder's query, passing the signal on if there is one.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor query(SQLiteQueryBuilder builder,
+                                SQLiteDatabase database,
+                                String[] projection,
+                                String selection,
+                                String[] selectionArgs,
+                                String groupBy,
+                                String sortOrder,
+                                String limit,
+                                CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return builder.query(database,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    groupBy,
+                    null,
+                    sortOrder,
+                    limit);
         }
 
+        return builder.query(database,
+                projection,
+                selection,
+                selectionArgs,
+                groupBy,
+                null,
+                sortOrder,
+                limit,
+                cancellationSignal);
+    }
+
+    /**
+     * Checks whether a {@link DevicesContract.DeviceManufacturer} query can
+     * be answered from the device table alone: every requested column is
+     * stored in the device table, and the selection and sort order do not
+     * refer to the manufacturer table or its columns.
+     */
+    private static boolean isDeviceOnlyQuery(String[] projection,
+                                             String selection,
+                                             String sortOrder) {
+        for (String column : projection) {
+            if (!DEVICE_ONLY_PROJECTION_MAP.containsKey(column)) {
+                return false;
+            }
+        }
+
+        for (String clause : new String[] {selection, sortOrder}) {
+            if (clause == null) {
+                continue;
+            }
+
+            final Matcher matcher = IDENTIFIER.matcher(STRING_LITERAL
+                    .matcher(clause)
+                    .replaceAll("''"));
+
+            while (matcher.find()) {
+                if (MANUFACTURER_IDENTIFIERS.contains(matcher
+                        .group()
+                        .toLowerCase(Locale.US))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Answers the {@link DevicesContract.DeviceStats} Uris from the
+     * aggregate cache, running the aggregate query on a miss.
+     */
+    private Cursor queryDeviceStats(SQLiteDatabase database,
+                                    Uri uri,
+                                    boolean byManufacturer,
+                                    String[] projection,
+                                    String sortOrder,
+                                    CancellationSignal cancellationSignal) {
+        final String percentileParameter = uri.getQueryParameter(DevicesContract
+                .DeviceStats
+                .PARAM_PERCENTILE);
+
+        final int percentile = (percentileParameter == null
+                ? DEFAULT_PERCENTILE
+                : Integer.parseInt(percentileParameter));
+
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: "
+                    + percentile);
+        }
+
+        final String cacheKey = Arrays.asList(byManufacturer,
+                percentile,
+                Arrays.toString(projection),
+                sortOrder).toString();
+
+        final Cursor cachedCursor = aggregateCache.get(cacheKey);
+
+        if (cachedCursor != null) {
+            return cachedCursor;
+        }
+
+        if (projection == null) {
+            projection = (byManufacturer
+                    ? MANUFACTURER_DEVICE_STATS_COLUMNS
+                    : DEVICE_STATS_COLUMNS);
+        }
+
+        if (sortOrder != null) {
+            final Matcher matcher = IDENTIFIER.matcher(STRING_LITERAL
+                    .matcher(sortOrder)
+                    .replaceAll("''"));
+
+            while (matcher.find()) {
+                if (PERCENTILE_COLUMN_MAP.containsKey(matcher
+                        .group()
+                        .toLowerCase(Locale.US))) {
+                    throw new IllegalArgumentException("Cannot sort by a "
+                            + "percentile column: " + sortOrder);
+                }
+            }
+        }
+
+        final long generation = aggregateCache.getGeneration();
+        final SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        final Map<String, String> projectionMap = new HashMap<>();
+        final String manufacturerIdColumn;
+
+        if (byManufacturer) {
+            builder.setTables(String
+                    .format("%s LEFT OUTER JOIN %s ON (%s.%s=%s.%s)",
+                            DevicesOpenHelper.Tables.MANUFACTURER,
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesOpenHelper.Tables.DEVICE,
+                            DevicesContract.Device.MANUFACTURER_ID,
+                            DevicesOpenHelper.Tables.MANUFACTURER,
+                            DevicesContract.Manufacturer._ID));
+
+            manufacturerIdColumn = String.format("%s.%s",
+                    DevicesOpenHelper.Tables.MANUFACTURER,
+                    DevicesContract.Manufacturer._ID);
+
+            projectionMap.put(DevicesContract.DeviceStats.MANUFACTURER_ID,
+                    String.format("%s AS %s",
+                            manufacturerIdColumn,
+                            DevicesContract.DeviceStats.MANUFACTURER_ID));
+
+            projectionMap.put(DevicesContract.DeviceStats.SHORT_NAME,
+                    String.format("%s.%s AS %s",
+                            DevicesOpenHelper.Tables.MANUFACTURER,
+                            DevicesContract.Manufacturer.SHORT_NAME,
+                            DevicesContract.DeviceStats.SHORT_NAME));
+
+            if (sortOrder == null) {
+                sortOrder = DevicesContract.DeviceStats.SHORT_NAME;
+            }
+        } else {
+            builder.setTables(DevicesOpenHelper.Tables.DEVICE);
+            manufacturerIdColumn = null;
+        }
+
+        projectionMap.put(DevicesContract.DeviceStats.DEVICE_COUNT,
+                String.format("COUNT(%s.%s) AS %s",
+                        DevicesOpenHelper.Tables.DEVICE,
+                        DevicesContract.Device._ID,
+                        DevicesContract.DeviceStats.DEVICE_COUNT));
+
+        projectionMap.put(DevicesContract.DeviceStats.AVG_DISPLAY_SIZE_INCHES,
+                String.format("AVG(%s.%s) AS %s",
+                        DevicesOpenHelper.Tables.DEVICE,
+                        DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                        DevicesContract.DeviceStats.AVG_DISPLAY_SIZE_INCHES));
+
+        projectionMap.put(DevicesContract.DeviceStats.AVG_MEMORY_MB,
+                String.format("AVG(%s.%s) AS %s",
+                        DevicesOpenHelper.Tables.DEVICE,
+                        DevicesContract.Device.MEMORY_MB,
+                        DevicesContract.DeviceStats.AVG_MEMORY_MB));
+
+        // The percentiles are filled in after the aggregate query
+        for (String column : PERCENTILE_COLUMN_MAP.keySet()) {
+            projectionMap.put(column, "NULL AS " + column);
+        }
+
+        builder.setProjectionMap(projectionMap);
+
+        final List<String> queryColumns =
+                new ArrayList<>(Arrays.asList(projection));
+
+        boolean hasPercentile = false;
+
+        for (String column : projection) {
+            hasPercentile |= PERCENTILE_COLUMN_MAP.containsKey(column);
+        }
+
+        // Each row's percentiles are looked up by its manufacturer
+        if (hasPercentile
+                && byManufacturer
+                && !queryColumns.contains(DevicesContract
+                .DeviceStats
+                .MANUFACTURER_ID)) {
+            queryColumns.add(DevicesContract.DeviceStats.MANUFACTURER_ID);
+        }
+
+        Cursor cursor = query(builder,
+                database,
+                queryColumns.toArray(new String[queryColumns.size()]),
+                null,
+                null,
+                (byManufacturer ? manufacturerIdColumn : null),
+                sortOrder,
+                null,
+                cancellationSignal);
+
+        if (hasPercentile) {
+            cursor = fillPercentiles(database,
+                    cursor,
+                    projection.length,
+                    byManufacturer,
+                    percentile,
+                    cancellationSignal);
+        }
+
+        // A result read inside of a transaction may never be committed
+        return aggregateCache.put(cacheKey,
+                cursor,
+                generation,
+                !database.inTransaction());
+    }
+
+    /**
+     * Copies the rows of an aggregate query, with the percentile columns
+     * filled in, and closes the query's cursor.
+     *
+     * @param aggregates The rows of the aggregate query. When grouped by
+     *                   manufacturer, it has a
+     *                   {@link DevicesContract.DeviceStats#MANUFACTURER_ID}
+     *                   column.
+     * @param columnCount The number of columns to copy, which excludes any
+     *                    column that was only added to find the percentiles.
+     */
+    private static Cursor fillPercentiles(SQLiteDatabase database,
+                                          Cursor aggregates,
+                                          int columnCount,
+                                          boolean byManufacturer,
+                                          int percentile,
+                                          CancellationSignal cancellationSignal) {
+        try {
+            final String[] columns =
+                    Arrays.copyOf(aggregates.getColumnNames(), columnCount);
+
+            final MatrixCursor result =
+                    new MatrixCursor(columns, aggregates.getCount());
+
+            final int manufacturerIdIndex = (byManufacturer
+                    ? aggregates.getColumnIndexOrThrow(DevicesContract
+                    .DeviceStats
+                    .MANUFACTURER_ID)
+                    : -1);
+
+            // The percentiles of each percentile column, keyed by position
+            final SparseArray<LongSparseArray<Double>> percentiles =
+                    new SparseArray<>();
+
+            for (int i = 0; i < columns.length; i++) {
+                final String deviceColumn = PERCENTILE_COLUMN_MAP.get(columns[i]);
+
+                if (deviceColumn != null) {
+                    percentiles.put(i, queryPercentiles(database,
+                            deviceColumn,
+                            percentile,
+                            byManufacturer,
+                            cancellationSignal));
+                }
+            }
+
+            while (aggregates.moveToNext()) {
+                final Object[] row = RowCache.readRow(aggregates);
+                final long groupId = (byManufacturer
+                        ? aggregates.getLong(manufacturerIdIndex)
+                        : 0);
+
+                for (int i = 0; i < percentiles.size(); i++) {
+                    row[percentiles.keyAt(i)] =
+                            percentiles.valueAt(i).get(groupId);
+                }
+
+                result.addRow(Arrays.copyOf(row, columnCount));
+            }
+
+            return result;
+        } finally {
+            aggregates.close();
+        }
+    }
+
+    /**
+     * Finds the nearest-rank percentile of a device column: the value at
+     * position ceil(percentile * n / 100), or the first value for the 0th
+     * percentile, of the n non-null values in ascending order. Every group
+     * is found in a single ordered scan, using the group's size to jump to
+     * the value at its rank.
+     *
+     * @return The percentile of each manufacturer ID, or of the key 0 when
+     *         not grouped by manufacturer. Groups without any non-null
+     *         values have no entry.
+     */
+    private static LongSparseArray<Double> queryPercentiles(SQLiteDatabase database,
+                                                            String column,
+                                                            int percentile,
+                                                            boolean byManufacturer,
+                                                            CancellationSignal cancellationSignal) {
+        final String groupColumn = (byManufacturer
+                ? DevicesContract.Device.MANUFACTURER_ID
+                : "0");
+
+        final Cursor cursor = query(database,
+                DevicesOpenHelper.Tables.DEVICE,
+                new String[] {groupColumn, column},
+                column + " IS NOT NULL",
+                null,
+                (byManufacturer ? groupColumn + ", " : "") + column,
+                cancellationSignal);
+
+        final LongSparseArray<Double> percentiles = new LongSparseArray<>();
+
+        try {
+            int groupStart = 0;
+            long groupId = 0;
+
+            for (int position = 0; ; position++) {
+                final boolean hasRow = cursor.moveToPosition(position);
+                final long rowGroupId = (hasRow ? cursor.getLong(0) : 0);
+
+                if (position > groupStart
+                        && (!hasRow || rowGroupId != groupId)) {
+                    final int count = position - groupStart;
+                    final int rank =
+                            Math.max(1, (percentile * count + 99) / 100);
+
+                    cursor.moveToPosition(groupStart + rank - 1);
+                    percentiles.put(groupId, cursor.getDouble(1));
+                    groupStart = position;
+                }
+
+                if (!hasRow) {
+                    break;
+                }
+
+                groupId = rowGroupId;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return percentiles;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri,
+                      ContentValues values,
+                      String selection,
+                      String[] selectionArgs) {
+        final long startNanos = System.nanoTime();
+        int rowCount;
+
+        final int code = URI_MATCHER.match(uri);
+        switch (code) {
+            case CODE_ALL_DEVICES:
+            case CODE_ALL_MANUFACTURERS:
+                rowCount = helper
+                        .getWritableDatabase()
+                        .update(URI_CODE_TABLE_MAP.get(code),
+                                values,
+                                selection,
+                                selectionArgs);
+                break;
+            case CODE_DEVICE_ID:
+            case CODE_MANUFACTURER_ID:
+                if (selection == null
+                        && selectionArgs == null) {
+                    rowCount = updateById(code,
+                            ContentUris.parseId(uri),
+                            values);
+                } else {
+                    throw new IllegalArgumentException("Selection must be " +
+                            "null when specifying ID as part of uri.");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid Uri: " + uri);
+        }
+
+        invalidateRows(uri);
         notifyUris(uri);
+        operationStats.record(ProviderStats.OPERATION_UPDATE,
+                code,
+                startNanos,
+                rowCount);
+
         return rowCount;
     }
 
+    /**
+     * Updates a single row with a cached compiled statement. The columns
+     * are sorted so that every update of the same set of columns shares
+     * one statement.
+     */
+    private int updateById(int code, long id, ContentValues values) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        final StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(URI_CODE_TABLE_MAP.get(code))
+                .append(" SET ");
+
+        final Object[] args = new Object[values.size() + 1];
+        int index = 0;
+
+        for (String column : new TreeSet<>(values.keySet())) {
+            sql.append(index == 0 ? "" : ", ")
+                    .append(column)
+                    .append(" = ?");
+
+            args[index++] = values.get(column);
+        }
+
+        sql.append(" WHERE ")
+                .append(BaseColumns._ID)
+                .append(" = ?");
+
+        args[index] = id;
+
+        return statementCache.executeUpdateDelete(helper.getWritableDatabase(),
+                sql.toString(),
+                args);
+    }
+
+    /**
+     * Inserts all of the rows with compiled statements. The Uri is matched
+     * once for the whole batch, values are bound by column position, and a
+     * single change notification is sent once the batch has been
+     * committed. Rows are inserted by a statement that only names the
+     * columns they hold, so omitted columns get their defaults rather
+     * than NULL, and rows with the same columns share a statement.
+     *
+     * @return The number of rows that were inserted or, with
+     *         {@link DevicesContract#ON_CONFLICT_UPDATE}, updated. Rows
+     *         that were ignored because of a conflict are not counted.
+     */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long startNanos = System.nanoTime();
+        final int code = URI_MATCHER.match(uri);
+        final String[] columns = URI_CODE_INSERT_COLUMNS_MAP.get(code);
+
+        if (columns == null) {
+            throw new IllegalArgumentException("Invalid Uri: " + uri);
+        }
+
+        final String onConflict =
+                uri.getQueryParameter(DevicesContract.PARAM_ON_CONFLICT);
+
+        final boolean update =
+                (onConflict != null && isUpdateOnConflict(onConflict));
+
+        final String table = URI_CODE_TABLE_MAP.get(code);
         final SQLiteDatabase db = helper.getWritableDatabase();
 
+        // Insert statements, keyed by the bit mask of the columns that
+        // they name
+        final SparseArray<SQLiteStatement> insertStatements =
+                new SparseArray<>();
+
+        // Update statements, keyed by SQL, for rows that conflict
+        final Map<String, SQLiteStatement> updateStatements =
+                new HashMap<>();
+
+        final long transactionStartNanos = System.nanoTime();
+        int rowCount = 0;
+
         db.beginTransaction();
 
         try {
-            final int count = super.bulkInsert(uri, values);
-            db.setTransactionSuccessful();
+            for (ContentValues rowValues : values) {
+                int columnMask = 0;
+
+                for (int i = 0; i < columns.length; i++) {
+                    if (rowValues.containsKey(columns[i])) {
+                        columnMask |= (1 << i);
+                    }
+                }
+
+                if (Integer.bitCount(columnMask) != rowValues.size()) {
+                    throw new IllegalArgumentException("Unknown column in "
+                            + rowValues + " for Uri: " + uri);
+                }
+
+                SQLiteStatement statement = insertStatements.get(columnMask);
+
+                if (statement == null) {
+                    statement = db.compileStatement(buildInsertSql(table,
+                            columns,
+                            columnMask,
+                            onConflict != null));
+
+                    insertStatements.put(columnMask, statement);
+                }
 
-            return count;
+                int index = 1;
+
+                for (int i = 0; i < columns.length; i++) {
+                    if ((columnMask & (1 << i)) != 0) {
+                        bindValue(statement,
+                                index++,
+                                rowValues.get(columns[i]));
+                    }
+                }
+
+                if (statement.executeInsert() != -1) {
+                    rowCount++;
+                } else if (update && updateByNaturalKey(db,
+                        updateStatements,
+                        code,
+                        rowValues)) {
+                    rowCount++;
+                }
+            }
+
+            db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+
+            operationStats.record(ProviderStats.OPERATION_TRANSACTION,
+                    code,
+                    transactionStartNanos,
+                    rowCount);
+
+            for (int i = 0; i < insertStatements.size(); i++) {
+                insertStatements.valueAt(i).close();
+            }
+
+            for (SQLiteStatement updateStatement
+                    : updateStatements.values()) {
+                updateStatement.close();
+            }
         }
+
+        if (rowCount > 0) {
+            final Uri contentUri = uri.buildUpon().clearQuery().build();
+
+            if (update) {
+                invalidateRows(contentUri);
+            }
+
+            notifyUris(contentUri);
+        }
+
+        operationStats.record(ProviderStats.OPERATION_BULK_INSERT,
+                code,
+                startNanos,
+                rowCount);
+
+        return rowCount;
     }
 
+    /**
+     * Updates the row that has the same natural key as the given values,
+     * using a compiled statement that is shared by every row with the same
+     * set of columns.
+     *
+     * @return False if the values only hold the natural key, so there was
+     *         nothing to update.
+     */
+    private static boolean updateByNaturalKey(SQLiteDatabase db,
+                                           Map<String, SQLiteStatement> updateStatements,
+                                           int code,
+                                           ContentValues values) {
+        final String[] columns = URI_CODE_INSERT_COLUMNS_MAP.get(code);
+        final String[] keyColumns = URI_CODE_NATURAL_KEY_MAP.get(code);
+        final List<String> keyColumnList = Arrays.asList(keyColumns);
+        final StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(URI_CODE_TABLE_MAP.get(code))
+                .append(" SET ");
+
+        int columnCount = 0;
+
+        for (String column : columns) {
+            if (values.containsKey(column)
+                    && !keyColumnList.contains(column)) {
+                sql.append(columnCount++ == 0 ? "" : ", ")
+                        .append(column)
+                        .append(" = ?");
+            }
+        }
+
+        if (columnCount == 0) {
+            return false;
+        }
+
+        for (int i = 0; i < keyColumns.length; i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ")
+                    .append(keyColumns[i])
+                    .append(" = ?");
+        }
+
+        SQLiteStatement statement = updateStatements.get(sql.toString());
+
+        if (statement == null) {
+            statement = db.compileStatement(sql.toString());
+            updateStatements.put(sql.toString(), statement);
+        }
+
+        int index = 1;
+
+        for (String column : columns) {
+            if (values.containsKey(column)
+                    && !keyColumnList.contains(column)) {
+                bindValue(statement, index++, values.get(column));
+            }
+        }
+
+        for (String keyColumn : keyColumns) {
+            bindValue(statement, index++, values.get(keyColumn));
+        }
+
+        if (statement.executeUpdateDelete() == 0) {
+            // The insert was ignored for a reason other than the natural key
+            throw new SQLiteConstraintException("Could not insert " + values);
+        }
+
+        return true;
+    }
+
+    /**
+     * Applies the operations in a single transaction, except that the
+     * transaction is committed and restarted before an operation that
+     * {@link ContentProviderOperation#isYieldAllowed() allows a yield}
+     * whenever another thread is waiting for the database. The operations
+     * before a yield point stay committed if a later operation fails.
+     */
     @Override
     public @NonNull ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        final long startNanos = System.nanoTime();
         final SQLiteDatabase db = helper.getWritableDatabase();
-
-        db.beginTransaction();
+        final boolean deferringNotifications = beginDeferredNotifications();
+        boolean committed = false;
 
         try {
             final ContentProviderResult[] results =
-                    super.applyBatch(operations);
-            db.setTransactionSuccessful();
+                    new ContentProviderResult[operations.size()];
+
+            final long transactionStartNanos = System.nanoTime();
+
+            db.beginTransaction();
+
+            try {
+                for (int i = 0; i < operations.size(); i++) {
+                    final ContentProviderOperation operation =
+                            operations.get(i);
+
+                    // A nested batch cannot commit its enclosing
+                    // transaction. Back-references still resolve after a
+                    // yield, as the earlier results are kept.
+                    if (i > 0
+                            && operation.isYieldAllowed()
+                            && deferringNotifications
+                            && db.yieldIfContendedSafely(YIELD_SLEEP_MS)) {
+                        yieldCount.incrementAndGet();
+                        flushDeferredNotifications();
+                    }
+
+                    results[i] = operation.apply(this, results, i);
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+
+                operationStats.record(ProviderStats.OPERATION_TRANSACTION,
+                        UriMatcher.NO_MATCH,
+                        transactionStartNanos,
+                        operations.size());
+            }
 
+            committed = true;
             return results;
         } finally {
-            db.endTransaction();
+            endDeferredNotifications(deferringNotifications, committed);
+
+            // A batch can span several Uris, so it is not keyed by code
+            operationStats.record(ProviderStats.OPERATION_APPLY_BATCH,
+                    UriMatcher.NO_MATCH,
+                    startNanos,
+                    operations.size());
+        }
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (DevicesContract.Stats.METHOD.equals(method)) {
+            final Bundle stats = new Bundle();
+
+            stats.putLong(DevicesContract.Stats.NOTIFICATIONS_SENT,
+                    sentNotificationCount.get());
+
+            stats.putLong(DevicesContract.Stats.NOTIFICATIONS_SUPPRESSED,
+                    suppressedNotificationCount.get());
+
+            stats.putLong(DevicesContract.Stats.DEVICE_ONLY_QUERIES,
+                    deviceOnlyQueryCount.get());
+
+            stats.putLong(DevicesContract.Stats.BATCH_YIELDS,
+                    yieldCount.get());
+
+            operationStats.writeTo(stats);
+
+            final Bundle rowCacheStats = new Bundle();
+
+            for (Map.Entry<String, RowCache> entry : rowCaches.entrySet()) {
+                final Bundle tableStats = new Bundle();
+
+                entry.getValue().writeTo(tableStats);
+                rowCacheStats.putBundle(entry.getKey(), tableStats);
+            }
+
+            stats.putBundle(DevicesContract.Stats.ROW_CACHES, rowCacheStats);
+
+            final Bundle aggregateCacheStats = new Bundle();
+
+            aggregateCache.writeTo(aggregateCacheStats);
+            stats.putBundle(DevicesContract.Stats.AGGREGATE_CACHE,
+                    aggregateCacheStats);
+            return stats;
         }
+
+        return super.call(method, arg, extras);
+    }
+
+    @Override
+    public void shutdown() {
+        statementCache.clear();
+        helper.close();
+        super.shutdown();
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Notifications sent: " + sentNotificationCount.get());
+        writer.println("Notifications suppressed: "
+                + suppressedNotificationCount.get());
+
+        writer.println("Device-only queries: " + deviceOnlyQueryCount.get());
+        writer.println("Batch yields: " + yieldCount.get());
+
+        operationStats.dump(writer);
+
+        for (RowCache rowCache : rowCaches.values()) {
+            writer.println("Row cache: " + rowCache);
+        }
+
+        writer.println("Aggregate cache: " + aggregateCache);
+    }
+
+    /**
+     * @param columnMask The columns to insert, as a bit mask of their
+     *                   positions in the columns array.
+     */
+    private static String buildInsertSql(String table,
+                                         String[] columns,
+                                         int columnMask,
+                                         boolean ignoreConflicts) {
+        final StringBuilder sql = new StringBuilder(ignoreConflicts
+                ? "INSERT OR IGNORE INTO "
+                : "INSERT INTO ")
+                .append(table);
+
+        if (columnMask == 0) {
+            return sql.append(" DEFAULT VALUES").toString();
+        }
+
+        final StringBuilder parameters = new StringBuilder();
+
+        sql.append(" (");
+
+        for (int i = 0; i < columns.length; i++) {
+            if ((columnMask & (1 << i)) != 0) {
+                final String separator = (parameters.length() == 0 ? "" : ", ");
+
+                sql.append(separator).append(columns[i]);
+                parameters.append(separator).append('?');
+            }
+        }
+
+        return sql.append(") VALUES (")
+                .append(parameters)
+                .append(')')
+                .toString();
     }
 
+    /* package */ static void bindValue(SQLiteStatement statement,
+                                        int index,
+                                        Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Starts collecting change notifications for the calling thread rather
+     * than sending them immediately, along with the rows that need to be
+     * invalidated again when the batch ends.
+     *
+     * @return true if this call started the collection, false if the
+     *         thread was already collecting for an enclosing batch.
+     */
+    private boolean beginDeferredNotifications() {
+        if (pendingNotifications.get() != null) {
+            return false;
+        }
+
+        pendingNotifications.set(new LinkedHashSet<Uri>());
+        pendingInvalidations.set(new LinkedHashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Stops collecting change notifications for the calling thread. The
+     * collected notifications are sent if the transaction was committed,
+     * and are dropped if it was rolled back.
+     *
+     * @param owner The value returned by the matching call to
+     *              {@link #beginDeferredNotifications()}.
+     * @param committed true if the batch's transaction was committed.
+     */
+    private void endDeferredNotifications(boolean owner, boolean committed) {
+        if (!owner) {
+            return;
+        }
+
+        final Set<Uri> invalidatedUris = pendingInvalidations.get();
+        pendingInvalidations.remove();
+
+        for (Uri uri : invalidatedUris) {
+            invalidateRows(uri);
+        }
+
+        final Set<Uri> uris = pendingNotifications.get();
+        pendingNotifications.remove();
+
+        if (committed) {
+            for (Uri uri : coalesceNotifications(uris)) {
+                sendNotification(uri);
+            }
+        } else {
+            suppressedNotificationCount.addAndGet(uris.size());
+        }
+    }
+
+    /**
+     * Sends the notifications that have been collected so far, and
+     * invalidates the collected rows again, without ending the
+     * collection. Used once a batch has committed part of its work at a
+     * yield point.
+     */
+    private void flushDeferredNotifications() {
+        final Set<Uri> invalidatedUris = pendingInvalidations.get();
+        pendingInvalidations.remove();
+
+        for (Uri uri : invalidatedUris) {
+            invalidateRows(uri);
+        }
+
+        pendingInvalidations.set(new LinkedHashSet<Uri>());
+
+        final Set<Uri> uris = pendingNotifications.get();
+        pendingNotifications.set(new LinkedHashSet<Uri>());
+
+        for (Uri uri : coalesceNotifications(uris)) {
+            sendNotification(uri);
+        }
+    }
+
+    /**
+     * Replaces the row Uris of a table with the table's Uri if the table's
+     * Uri is already notified, or if there are more than
+     * {@link #MAX_ROW_NOTIFICATIONS} of them.
+     */
+    private Set<Uri> coalesceNotifications(Set<Uri> uris) {
+        final Map<Uri, Integer> rowCounts = new HashMap<>();
+
+        for (Uri uri : uris) {
+            final Uri tableUri = getTableUri(uri);
+
+            if (tableUri != null) {
+                final Integer rowCount = rowCounts.get(tableUri);
+                rowCounts.put(tableUri, (rowCount == null ? 1 : rowCount + 1));
+            }
+        }
+
+        final Set<Uri> coalescedUris = new LinkedHashSet<>();
+
+        for (Uri uri : uris) {
+            final Uri tableUri = getTableUri(uri);
+
+            if (tableUri != null
+                    && (uris.contains(tableUri)
+                    || rowCounts.get(tableUri) > MAX_ROW_NOTIFICATIONS)) {
+                coalescedUris.add(tableUri);
+            } else {
+                coalescedUris.add(uri);
+            }
+        }
+
+        suppressedNotificationCount.addAndGet(uris.size()
+                - coalescedUris.size());
+
+        return coalescedUris;
+    }
+
+    /**
+     * @return The Uri of the table that holds the row, or null if the Uri
+     *         does not identify a device or manufacturer row.
+     */
+    private static Uri getTableUri(Uri uri) {
+        switch (URI_MATCHER.match(uri)) {
+            case CODE_DEVICE_ID:
+                return DevicesContract.Device.CONTENT_URI;
+            case CODE_MANUFACTURER_ID:
+                return DevicesContract.Manufacturer.CONTENT_URI;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts text typed by the user into an FTS MATCH expression that
+     * requires every word to appear as a prefix of an indexed word.
+     *
+     * @return The expression, or null if the text does not contain any
+     *         words.
+     */
+    private static String buildMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        final StringBuilder match = new StringBuilder();
+
+        // Terms are lower-cased so that they are never read as AND, OR,
+        // NOT or NEAR operators
+        for (String term : SEARCH_TERM_SEPARATOR
+                .split(query.toLowerCase(Locale.US))) {
+            if (!term.isEmpty()) {
+                match.append(match.length() == 0 ? "" : " ")
+                        .append(term)
+                        .append('*');
+            }
+        }
+
+        return (match.length() == 0 ? null : match.toString());
+    }
+
+    /**
+     * Removes the rows identified by a device or manufacturer Uri from the
+     * row cache. A Uri without an ID invalidates the whole table.
+     */
+    private void invalidateRows(Uri uri) {
+        final int code = URI_MATCHER.match(uri);
+        final RowCache rowCache = rowCaches.get(URI_CODE_TABLE_MAP.get(code));
+
+        if (code == CODE_DEVICE_ID || code == CODE_MANUFACTURER_ID) {
+            rowCache.invalidate(ContentUris.parseId(uri));
+        } else {
+            rowCache.invalidateAll();
+        }
+
+        final Set<Uri> uris = pendingInvalidations.get();
+
+        if (uris != null) {
+            uris.add(uri);
+        }
+    }
+
+    /**
+     * Notifies the Uri that was written, along with the Uris that are
+     * derived from the device and manufacturer tables.
+     *
+     * <p>A write to a single row only notifies the row's Uri. Observers of
+     * the table are notified as well if they were registered for
+     * descendants, while observers of the table's other rows are not. A
+     * write to the table notifies the table's Uri, and with it every row
+     * observer.</p>
+     *
+     * <p>Notifying {@link DevicesContract.DeviceStats#CONTENT_URI} also
+     * notifies the observers of
+     * {@link DevicesContract.DeviceStats#BY_MANUFACTURER_URI}, which is a
+     * descendant of it.</p>
+     */
     private void notifyUris(Uri affectedUri) {
+        notifyUri(affectedUri);
+        notifyUri(DevicesContract.DeviceManufacturer.CONTENT_URI);
+        notifyUri(DevicesContract.DeviceSearch.CONTENT_URI);
+        notifyUri(DevicesContract.DeviceStats.CONTENT_URI);
+    }
+
+    private void notifyUri(Uri uri) {
+        final Set<Uri> uris = pendingNotifications.get();
+
+        if (uris == null) {
+            sendNotification(uri);
+        } else if (!uris.add(uri)) {
+            suppressedNotificationCount.incrementAndGet();
+        }
+    }
+
+    private void sendNotification(Uri uri) {
         final ContentResolver contentResolver =
                 getContext().getContentResolver();
 
+        aggregateCache.invalidateAll();
+
         if (contentResolver != null) {
-            contentResolver.notifyChange(affectedUri, null);
-            contentResolver
-                    .notifyChange(DevicesContract
-                            .DeviceManufacturer.CONTENT_URI, null);
+            contentResolver.notifyChange(uri, null);
+            sentNotificationCount.incrementAndGet();
         }
     }
 
@@ -385,6 +2113,26 @@ public class DevicesProvider extends ContentProvider {
                         ContentResolver.CURSOR_ITEM_BASE_TYPE,
                         DevicesContract.AUTHORITY,
                         DevicesContract.Manufacturer.PATH);
+            case CODE_DEVICE_SEARCH:
+                return String.format("%s/vnd.%s.%s",
+                        ContentResolver.CURSOR_DIR_BASE_TYPE,
+                        DevicesContract.AUTHORITY,
+                        DevicesContract.DeviceSearch.PATH);
+            case CODE_DEVICE_STATS:
+                return String.format("%s/vnd.%s.%s",
+                        ContentResolver.CURSOR_ITEM_BASE_TYPE,
+                        DevicesContract.AUTHORITY,
+                        DevicesContract.DeviceStats.PATH);
+            case CODE_MANUFACTURER_DEVICE_STATS:
+                return String.format("%s/vnd.%s.%s",
+                        ContentResolver.CURSOR_DIR_BASE_TYPE,
+                        DevicesContract.AUTHORITY,
+                        DevicesContract.DeviceStats.PATH);
+            case CODE_SYNC_METADATA:
+                return String.format("%s/vnd.%s.%s",
+                        ContentResolver.CURSOR_DIR_BASE_TYPE,
+                        DevicesContract.AUTHORITY,
+                        DevicesContract.SyncMetadata.PATH);
             default:
                 return null;
         }
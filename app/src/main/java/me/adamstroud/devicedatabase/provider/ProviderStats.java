@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Collects call counts, latency histograms and row counts for
+ * {@link DevicesProvider}, keyed by operation and Uri match code.
+ * Recording a call only updates a few counters, so it is cheap enough to
+ * leave enabled in release builds.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class ProviderStats {
+    /* package */ static final int OPERATION_QUERY = 0;
+    /* package */ static final int OPERATION_INSERT = 1;
+    /* package */ static final int OPERATION_UPDATE = 2;
+    /* package */ static final int OPERATION_DELETE = 3;
+    /* package */ static final int OPERATION_BULK_INSERT = 4;
+    /* package */ static final int OPERATION_APPLY_BATCH = 5;
+
+    /**
+     * The time between beginning and ending a provider transaction.
+     */
+    /* package */ static final int OPERATION_TRANSACTION = 6;
+
+    private static final String[] OPERATION_NAMES = {
+            "query",
+            "insert",
+            "update",
+            "delete",
+            "bulkInsert",
+            "applyBatch",
+            "transaction"
+    };
+
+    /**
+     * The exclusive upper bounds, in microseconds, of the latency buckets.
+     * Calls that take longer land in one extra, unbounded bucket.
+     */
+    private static final long[] LATENCY_BUCKET_BOUNDS_US = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000,
+            250000, 1000000
+    };
+
+    private final SparseArray<String> codeNames;
+
+    /**
+     * The entries of each operation, keyed by Uri match code.
+     */
+    private final SparseArray<SparseArray<Entry>> entries =
+            new SparseArray<>();
+
+    /**
+     * @param codeNames A readable name for each Uri match code.
+     */
+    /* package */ ProviderStats(SparseArray<String> codeNames) {
+        this.codeNames = codeNames;
+
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            entries.put(i, new SparseArray<Entry>());
+        }
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param operation One of the OPERATION constants.
+     * @param code The Uri match code of the call.
+     * @param startNanos The value of {@link System#nanoTime()} when the
+     *                   call started.
+     * @param rowCount The number of rows returned or affected.
+     */
+    /* package */ void record(int operation,
+                              int code,
+                              long startNanos,
+                              int rowCount) {
+        final long micros = (System.nanoTime() - startNanos) / 1000;
+        final SparseArray<Entry> operationEntries = entries.get(operation);
+
+        synchronized (operationEntries) {
+            Entry entry = operationEntries.get(code);
+
+            if (entry == null) {
+                entry = new Entry();
+                operationEntries.put(code, entry);
+            }
+
+            entry.calls++;
+            entry.rows += rowCount;
+            entry.totalMicros += micros;
+            entry.maxMicros = Math.max(entry.maxMicros, micros);
+            entry.histogram[bucketOf(micros)]++;
+        }
+    }
+
+    private static int bucketOf(long micros) {
+        int bucket = 0;
+
+        while (bucket < LATENCY_BUCKET_BOUNDS_US.length
+                && micros >= LATENCY_BUCKET_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Copies the statistics into the format described by
+     * {@link DevicesContract.Stats}.
+     */
+    /* package */ void writeTo(Bundle bundle) {
+        final Bundle operations = new Bundle();
+
+        for (int i = 0; i < entries.size(); i++) {
+            final SparseArray<Entry> operationEntries = entries.valueAt(i);
+
+            synchronized (operationEntries) {
+                for (int j = 0; j < operationEntries.size(); j++) {
+                    final Entry entry = operationEntries.valueAt(j);
+                    final Bundle entryBundle = new Bundle();
+
+                    entryBundle.putLong(DevicesContract.Stats.CALLS,
+                            entry.calls);
+
+                    entryBundle.putLong(DevicesContract.Stats.ROWS,
+                            entry.rows);
+
+                    entryBundle.putLong(DevicesContract.Stats.TOTAL_MICROS,
+                            entry.totalMicros);
+
+                    entryBundle.putLong(DevicesContract.Stats.MAX_MICROS,
+                            entry.maxMicros);
+
+                    entryBundle.putLongArray(DevicesContract
+                                    .Stats
+                                    .LATENCY_HISTOGRAM,
+                            entry.histogram.clone());
+
+                    operations.putBundle(keyOf(entries.keyAt(i),
+                            operationEntries.keyAt(j)),
+                            entryBundle);
+                }
+            }
+        }
+
+        bundle.putBundle(DevicesContract.Stats.OPERATIONS, operations);
+        bundle.putLongArray(DevicesContract.Stats.LATENCY_BUCKET_BOUNDS_MICROS,
+                LATENCY_BUCKET_BOUNDS_US.clone());
+    }
+
+    /* package */ void dump(PrintWriter writer) {
+        writer.println("Latency bucket bounds (us): "
+                + Arrays.toString(LATENCY_BUCKET_BOUNDS_US));
+
+        for (int i = 0; i < entries.size(); i++) {
+            final SparseArray<Entry> operationEntries = entries.valueAt(i);
+
+            synchronized (operationEntries) {
+                for (int j = 0; j < operationEntries.size(); j++) {
+                    final Entry entry = operationEntries.valueAt(j);
+
+                    writer.printf("%s: calls=%d rows=%d avg=%dus max=%dus "
+                                    + "histogram=%s%n",
+                            keyOf(entries.keyAt(i),
+                                    operationEntries.keyAt(j)),
+                            entry.calls,
+                            entry.rows,
+                            entry.totalMicros / entry.calls,
+                            entry.maxMicros,
+                            Arrays.toString(entry.histogram));
+                }
+            }
+        }
+    }
+
+    private String keyOf(int operation, int code) {
+        return String.format("%s %s",
+                OPERATION_NAMES[operation],
+                codeNames.get(code, "*"));
+    }
+
+    private static class Entry {
+        private long calls;
+        private long rows;
+        private long totalMicros;
+        private long maxMicros;
+        private final long[] histogram =
+                new long[LATENCY_BUCKET_BOUNDS_US.length + 1];
+    }
+}
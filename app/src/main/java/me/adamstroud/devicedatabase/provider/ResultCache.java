@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded cache of complete query results, for queries that are
+ * expensive to run but whose results are small, such as aggregates. The
+ * whole cache is invalidated by any write.
+ *
+ * <p>As with {@link RowCache}, a result is only added if the cache has not
+ * been invalidated since the query started.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class ResultCache {
+    private final LruCache<String, Result> results;
+
+    /**
+     * Incremented by every invalidation.
+     */
+    private long generation;
+
+    /* package */ ResultCache(int maxSize) {
+        results = new LruCache<>(maxSize);
+    }
+
+    /**
+     * @return A cursor over the cached result, or null if the result is
+     *         not cached.
+     */
+    /* package */ Cursor get(String key) {
+        final Result result = results.get(key);
+
+        return (result == null ? null : result.toCursor());
+    }
+
+    /**
+     * @return A value to pass to {@link #put(String, Cursor, long, boolean)}
+     *         once the query has run.
+     */
+    /* package */ synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Copies and closes a query result.
+     *
+     * @param generation The value of {@link #getGeneration()} from before
+     *                   the query was run.
+     * @param cacheable false if the result must not be cached, e.g. because
+     *                  it was read inside of a transaction.
+     *
+     * @return A cursor over the copied result.
+     */
+    /* package */ Cursor put(String key,
+                             Cursor cursor,
+                             long generation,
+                             boolean cacheable) {
+        final Result result;
+
+        try {
+            result = new Result(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        if (cacheable) {
+            synchronized (this) {
+                if (generation == this.generation) {
+                    results.put(key, result);
+                }
+            }
+        }
+
+        return result.toCursor();
+    }
+
+    /* package */ synchronized void invalidateAll() {
+        generation++;
+        results.evictAll();
+    }
+
+    /* package */ void writeTo(Bundle bundle) {
+        bundle.putLong(DevicesContract.Stats.CACHE_HITS,
+                results.hitCount());
+
+        bundle.putLong(DevicesContract.Stats.CACHE_MISSES,
+                results.missCount());
+
+        bundle.putLong(DevicesContract.Stats.CACHE_SIZE, results.size());
+    }
+
+    @Override
+    public String toString() {
+        return results.toString();
+    }
+
+    private static class Result {
+        private final String[] columns;
+        private final List<Object[]> rows;
+
+        private Result(Cursor cursor) {
+            columns = cursor.getColumnNames();
+            rows = new ArrayList<>(cursor.getCount());
+
+            while (cursor.moveToNext()) {
+                rows.add(RowCache.readRow(cursor));
+            }
+        }
+
+        private Cursor toCursor() {
+            final MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.util.LruCache;
+
+/**
+ * A bounded cache of the complete rows of one table, keyed by _id, that
+ * lets {@link DevicesProvider} answer lookups by ID without running a query.
+ *
+ * <p>A row that is read from the database is only added if the table has
+ * not been invalidated since the read started. Otherwise a read that raced
+ * with a write could put the old row back after the write removed it.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class RowCache {
+    private final String table;
+    private final LruCache<Long, Row> rows;
+
+    /**
+     * Incremented by every invalidation.
+     */
+    private long generation;
+
+    /* package */ RowCache(String table, int maxSize) {
+        this.table = table;
+        rows = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Returns the row with the given ID, reading and caching the complete
+     * row if it is not cached yet.
+     *
+     * @param projection The columns to return, or null for every column.
+     * @return A cursor with zero or one rows, or null if a requested column
+     *         is not a column of the table (e.g. it is an expression), in
+     *         which case the caller needs to run the query itself.
+     */
+    /* package */ Cursor query(SQLiteDatabase db,
+                               long id,
+                               String[] projection) {
+        Row row = rows.get(id);
+
+        if (row == null) {
+            final long readGeneration = getGeneration();
+            final Cursor cursor = db.query(table,
+                    null,
+                    BaseColumns._ID + " = ?",
+                    new String[] {Long.toString(id)},
+                    null,
+                    null,
+                    null);
+
+            try {
+                if (!cursor.moveToFirst()) {
+                    return new MatrixCursor((projection == null
+                            ? cursor.getColumnNames()
+                            : projection), 0);
+                }
+
+                row = new Row(cursor);
+            } finally {
+                cursor.close();
+            }
+
+            // A row read inside of a transaction may never be committed
+            if (!db.inTransaction()) {
+                put(id, row, readGeneration);
+            }
+        }
+
+        return row.toCursor(projection);
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private synchronized void put(long id, Row row, long readGeneration) {
+        if (readGeneration == generation) {
+            rows.put(id, row);
+        }
+    }
+
+    /* package */ synchronized void invalidate(long id) {
+        generation++;
+        rows.remove(id);
+    }
+
+    /* package */ synchronized void invalidateAll() {
+        generation++;
+        rows.evictAll();
+    }
+
+    /* package */ void writeTo(Bundle bundle) {
+        bundle.putLong(DevicesContract.Stats.CACHE_HITS, rows.hitCount());
+        bundle.putLong(DevicesContract.Stats.CACHE_MISSES,
+                rows.missCount());
+
+        bundle.putLong(DevicesContract.Stats.CACHE_SIZE, rows.size());
+    }
+
+    /**
+     * @return The table name followed by the size, hit and miss counts.
+     */
+    @Override
+    public String toString() {
+        return table + " " + rows;
+    }
+
+    /**
+     * Copies the values of the row that the cursor is positioned on.
+     */
+    /* package */ static Object[] readRow(Cursor cursor) {
+        final Object[] values = new Object[cursor.getColumnCount()];
+
+        for (int i = 0; i < values.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    values[i] = null;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * The values of every column of a row, copied out of a cursor.
+     */
+    private static class Row {
+        private final String[] columns;
+        private final Object[] values;
+
+        private Row(Cursor cursor) {
+            columns = cursor.getColumnNames();
+            values = readRow(cursor);
+        }
+
+        /**
+         * @param projection The columns to return, or null for every
+         *                   column.
+         * @return A cursor with the requested columns, or null if a
+         *         requested column is not a column of the table (e.g. it
+         *         is an expression).
+         */
+        private Cursor toCursor(String[] projection) {
+            if (projection == null) {
+                projection = columns;
+            }
+
+            final Object[] projectedValues = new Object[projection.length];
+
+            for (int i = 0; i < projection.length; i++) {
+                final int index = indexOf(projection[i]);
+
+                if (index == -1) {
+                    return null;
+                }
+
+                projectedValues[i] = values[index];
+            }
+
+            final MatrixCursor cursor = new MatrixCursor(projection, 1);
+            cursor.addRow(projectedValues);
+
+            return cursor;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(column)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+/**
+ * A bounded cache of compiled statements, keyed by SQL. A statement is
+ * compiled the first time its SQL is executed and is reused, with new
+ * arguments bound, by later calls.
+ *
+ * <p>A compiled statement holds its own bound arguments, so it must not be
+ * used by two threads at once. Each call takes the statement out of the
+ * cache, binds and executes it, and puts it back afterwards. The cache's
+ * lock is only held to take and return statements, never while SQL runs,
+ * so a thread that waits for the database never blocks the cache. A
+ * thread that finds the statement taken compiles its own copy.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class StatementCache {
+    private final LruCache<String, SQLiteStatement> statements;
+
+    /* package */ StatementCache(int maxSize) {
+        statements = new LruCache<String, SQLiteStatement>(maxSize) {
+            @Override
+            protected void entryRemoved(boolean evicted,
+                                        String sql,
+                                        SQLiteStatement oldStatement,
+                                        SQLiteStatement newStatement) {
+                // A statement that is removed without being evicted or
+                // replaced has been taken by executeUpdateDelete
+                if (evicted || newStatement != null) {
+                    oldStatement.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Executes an UPDATE or DELETE statement.
+     *
+     * @param args The arguments to bind, in order. Each value is bound
+     *             according to its type.
+     *
+     * @return The number of rows that were changed.
+     */
+    /* package */ int executeUpdateDelete(SQLiteDatabase db,
+                                         String sql,
+                                         Object... args) {
+        SQLiteStatement statement = take(sql);
+
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+        }
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                DevicesProvider.bindValue(statement, i + 1, args[i]);
+            }
+
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.clearBindings();
+            putBack(sql, statement);
+        }
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    /* package */ synchronized void clear() {
+        statements.evictAll();
+    }
+
+    private synchronized SQLiteStatement take(String sql) {
+        return statements.remove(sql);
+    }
+
+    /**
+     * Returns a statement to the cache. If another thread compiled and
+     * returned the same SQL in the meantime, its statement is closed.
+     */
+    private synchronized void putBack(String sql, SQLiteStatement statement) {
+        statements.put(sql, statement);
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.content.SyncStats;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import me.adamstroud.devicedatabase.api.retrofit.CatalogDeltaResponse;
+import me.adamstroud.devicedatabase.api.retrofit.ManufacturersAndDevicesResponse;
+import me.adamstroud.devicedatabase.model.Device;
+import me.adamstroud.devicedatabase.model.Manufacturer;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+
+/**
+ * Generates the database operations that bring the local catalog in line
+ * with a response from the web API, and adds them to a
+ * {@link ChunkedBatch}.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ final class CatalogOperations {
+    /**
+     * Selects the rows that were not written with the sync token in the
+     * selection arguments, which includes rows that were never synced.
+     */
+    /* package */ static final String STALE_SELECTION = String.format(
+            "%1$s IS NULL OR %1$s <> ?",
+            DevicesContract.SyncColumns.SYNC_TOKEN);
+
+    /* package */ static final Uri MANUFACTURER_UPSERT_URI =
+            DevicesContract.withOnConflict(DevicesContract
+                            .Manufacturer.CONTENT_URI,
+                    DevicesContract.ON_CONFLICT_UPDATE);
+
+    /* package */ static final Uri DEVICE_UPSERT_URI =
+            DevicesContract.withOnConflict(DevicesContract.Device.CONTENT_URI,
+                    DevicesContract.ON_CONFLICT_UPDATE);
+
+    private static final String[] MANUFACTURER_PROJECTION = {
+            DevicesContract.Manufacturer._ID,
+            DevicesContract.Manufacturer.SHORT_NAME,
+            DevicesContract.Manufacturer.LONG_NAME
+    };
+
+    private static final String[] DEVICE_PROJECTION = {
+            DevicesContract.Device._ID,
+            DevicesContract.Device.MANUFACTURER_ID,
+            DevicesContract.Device.MODEL,
+            DevicesContract.Device.NICKNAME,
+            DevicesContract.Device.MEMORY_MB,
+            DevicesContract.Device.DISPLAY_SIZE_INCHES
+    };
+
+    private CatalogOperations() {
+        // no-op
+    }
+
+    /**
+     * Generates operations that rewrite every row of the catalog without
+     * comparing it to the local catalog, and then delete every other
+     * device and manufacturer. Rows are upserted on their natural key and
+     * stamped with the sync token. The provider may yield before each
+     * manufacturer.
+     *
+     * <p>The deletes are the last operations, so they are only applied
+     * once every chunk of upserts has been committed. If the catalog does
+     * not fit in a single chunk, a failure leaves the local catalog with
+     * the rows it held before as well as the rows of the chunks that were
+     * already applied, which the next sync repairs.</p>
+     *
+     * @param syncToken The token to stamp the written rows with.
+     */
+    public static void replaceAll(ManufacturersAndDevicesResponse response,
+                                  long syncToken,
+                                  ChunkedBatch batch)
+            throws RemoteException, OperationApplicationException {
+        for (Manufacturer manufacturer : response.getManufacturers()) {
+            // The upsert's result identifies the existing row as well
+            final int manufacturerUpsertOperationIndex =
+                    batch.addReferenced(newManufacturerInsert(MANUFACTURER_UPSERT_URI,
+                            manufacturer)
+                            .withValue(DevicesContract.Manufacturer.SYNC_TOKEN,
+                                    syncToken)
+                            .withYieldAllowed(true)
+                            .build());
+
+            for (Device device : manufacturer.getDevices()) {
+                batch.add(newDeviceInsert(DEVICE_UPSERT_URI, device)
+                                .withValue(DevicesContract.Device.SYNC_TOKEN,
+                                        syncToken),
+                        DevicesContract.Device.MANUFACTURER_ID,
+                        manufacturerUpsertOperationIndex);
+            }
+        }
+
+        final String[] selectionArgs = {Long.toString(syncToken)};
+
+        // Devices of a deleted manufacturer are removed by the
+        // ON DELETE CASCADE constraint
+        batch.add(ContentProviderOperation
+                .newDelete(DevicesContract.Manufacturer.CONTENT_URI)
+                .withSelection(STALE_SELECTION, selectionArgs)
+                .build());
+
+        batch.add(ContentProviderOperation
+                .newDelete(DevicesContract.Device.CONTENT_URI)
+                .withSelection(STALE_SELECTION, selectionArgs)
+                .build());
+    }
+
+    /**
+     * Generates operations that only touch the rows that differ between
+     * the local catalog and the response. Manufacturers are matched on
+     * their short name and devices are matched on their manufacturer and
+     * model. The provider may yield before the inserts and updates of
+     * each manufacturer.
+     *
+     * @param provider The provider that holds the local catalog.
+     * @param response The catalog that was returned by the web API.
+     * @param stats Receives the number of rows that will be inserted,
+     *              updated and deleted by the generated operations.
+     * @param batch Receives the generated operations.
+     */
+    public static void diff(ContentProviderClient provider,
+                            ManufacturersAndDevicesResponse response,
+                            SyncStats stats,
+                            ChunkedBatch batch)
+            throws RemoteException, OperationApplicationException {
+        // Holds the deletes of duplicate rows until both queries have
+        // been read, as the batch may apply them as they are added
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<>();
+
+        final Map<String, LocalManufacturer> localManufacturers =
+                queryManufacturers(provider, operations, stats);
+
+        final Map<Long, Map<String, LocalDevice>> localDevices =
+                queryDevices(provider, operations, stats);
+
+        for (ContentProviderOperation operation : operations) {
+            batch.add(operation);
+        }
+
+        final Map<String, Manufacturer> remoteManufacturers =
+                new LinkedHashMap<>();
+
+        for (Manufacturer manufacturer : response.getManufacturers()) {
+            if (remoteManufacturers.containsKey(manufacturer.getShortName())) {
+                stats.numSkippedEntries++;
+            } else {
+                remoteManufacturers.put(manufacturer.getShortName(),
+                        manufacturer);
+            }
+        }
+
+        // Deletes are applied first so that a row is always removed before
+        // a row with the same natural key could be inserted.
+        for (LocalManufacturer localManufacturer
+                : localManufacturers.values()) {
+            if (!remoteManufacturers
+                    .containsKey(localManufacturer.shortName)) {
+                // Devices are removed by the ON DELETE CASCADE constraint
+                final Map<String, LocalDevice> orphans =
+                        localDevices.remove(localManufacturer.id);
+
+                batch.add(ContentProviderOperation
+                        .newDelete(ContentUris
+                                .withAppendedId(DevicesContract
+                                        .Manufacturer.CONTENT_URI,
+                                        localManufacturer.id))
+                        .build());
+
+                stats.numDeletes += 1 + (orphans == null ? 0 : orphans.size());
+            }
+        }
+
+        for (Manufacturer manufacturer : remoteManufacturers.values()) {
+            final LocalManufacturer localManufacturer =
+                    localManufacturers.get(manufacturer.getShortName());
+
+            if (localManufacturer != null) {
+                final Map<String, LocalDevice> devices =
+                        localDevices.remove(localManufacturer.id);
+
+                if (devices != null) {
+                    localManufacturer.devices = devices;
+
+                    final Set<String> models = new HashSet<>();
+
+                    for (Device device : manufacturer.getDevices()) {
+                        models.add(device.getModel());
+                    }
+
+                    for (LocalDevice localDevice : devices.values()) {
+                        if (!models.contains(localDevice.model)) {
+                            batch.add(newDeviceDelete(localDevice));
+                            stats.numDeletes++;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Devices that do not belong to a known manufacturer
+        for (Map<String, LocalDevice> devices : localDevices.values()) {
+            for (LocalDevice localDevice : devices.values()) {
+                batch.add(newDeviceDelete(localDevice));
+                stats.numDeletes++;
+            }
+        }
+
+        for (Manufacturer manufacturer : remoteManufacturers.values()) {
+            final LocalManufacturer localManufacturer =
+                    localManufacturers.get(manufacturer.getShortName());
+
+            // The first operation of each manufacturer is a yield point
+            final int manufacturerStart = batch.size();
+
+            if (localManufacturer == null) {
+                final int manufacturerInsertOperationIndex =
+                        batch.addReferenced(newManufacturerInsert(manufacturer)
+                                .withYieldAllowed(true)
+                                .build());
+
+                stats.numInserts++;
+
+                final Set<String> models = new HashSet<>();
+
+                for (Device device : manufacturer.getDevices()) {
+                    if (!models.add(device.getModel())) {
+                        stats.numSkippedEntries++;
+                        continue;
+                    }
+
+                    batch.add(newDeviceInsert(device),
+                            DevicesContract.Device.MANUFACTURER_ID,
+                            manufacturerInsertOperationIndex);
+
+                    stats.numInserts++;
+                }
+            } else {
+                if (!TextUtils.equals(localManufacturer.longName,
+                        manufacturer.getLongName())) {
+                    batch.add(ContentProviderOperation
+                            .newUpdate(ContentUris
+                                    .withAppendedId(DevicesContract
+                                            .Manufacturer.CONTENT_URI,
+                                            localManufacturer.id))
+                            .withValue(DevicesContract.Manufacturer.LONG_NAME,
+                                    manufacturer.getLongName())
+                            .withYieldAllowed(true)
+                            .build());
+
+                    stats.numUpdates++;
+                }
+
+                final Map<String, LocalDevice> devices =
+                        localManufacturer.devices;
+                final Set<String> models = new HashSet<>();
+
+                for (Device device : manufacturer.getDevices()) {
+                    if (!models.add(device.getModel())) {
+                        stats.numSkippedEntries++;
+                        continue;
+                    }
+
+                    final LocalDevice localDevice =
+                            devices.get(device.getModel());
+
+                    if (localDevice == null) {
+                        batch.add(newDeviceInsert(device)
+                                .withValue(DevicesContract
+                                        .Device.MANUFACTURER_ID,
+                                        localManufacturer.id)
+                                .withYieldAllowed(batch.size()
+                                        == manufacturerStart)
+                                .build());
+
+                        stats.numInserts++;
+                    } else if (localDevice.differsFrom(device)) {
+                        batch.add(ContentProviderOperation
+                                .newUpdate(ContentUris
+                                        .withAppendedId(DevicesContract
+                                                .Device.CONTENT_URI,
+                                                localDevice.id))
+                                .withValue(DevicesContract.Device.NICKNAME,
+                                        device.getNickname())
+                                .withValue(DevicesContract.Device.MEMORY_MB,
+                                        device.getMemoryMb())
+                                .withValue(DevicesContract
+                                        .Device
+                                        .DISPLAY_SIZE_INCHES,
+                                        device.getDisplaySizeInches())
+                                .withYieldAllowed(batch.size()
+                                        == manufacturerStart)
+                                .build());
+
+                        stats.numUpdates++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates operations that apply the changes in a delta response.
+     * Deletes are applied first, and changed rows are upserted on their
+     * natural key. The provider may yield before each manufacturer.
+     *
+     * @param provider The provider that holds the local catalog.
+     * @param delta The changes that were returned by the web API.
+     * @param stats Receives the number of rows that will be written and
+     *              deleted by the generated operations.
+     * @param batch Receives the generated operations.
+     */
+    public static void changes(ContentProviderClient provider,
+                               CatalogDeltaResponse delta,
+                               SyncStats stats,
+                               ChunkedBatch batch)
+            throws RemoteException, OperationApplicationException {
+        if (delta.getDeletedManufacturers() != null) {
+            for (String shortName : delta.getDeletedManufacturers()) {
+                // Devices are removed by the ON DELETE CASCADE constraint
+                batch.add(ContentProviderOperation
+                        .newDelete(DevicesContract.Manufacturer.CONTENT_URI)
+                        .withSelection(DevicesContract.Manufacturer.SHORT_NAME
+                                + " = ?",
+                                new String[] {shortName})
+                        .build());
+
+                stats.numDeletes++;
+            }
+        }
+
+        if (delta.getDeletedDevices() != null
+                && !delta.getDeletedDevices().isEmpty()) {
+            // Short names are unique, so no deletes of duplicate rows are
+            // generated
+            final Map<String, LocalManufacturer> localManufacturers =
+                    queryManufacturers(provider,
+                            new ArrayList<ContentProviderOperation>(),
+                            new SyncStats());
+
+            for (CatalogDeltaResponse.DeletedDevice deletedDevice
+                    : delta.getDeletedDevices()) {
+                final LocalManufacturer localManufacturer =
+                        localManufacturers.get(deletedDevice.getShortName());
+
+                if (localManufacturer == null) {
+                    stats.numSkippedEntries++;
+                    continue;
+                }
+
+                batch.add(ContentProviderOperation
+                        .newDelete(DevicesContract.Device.CONTENT_URI)
+                        .withSelection(DevicesContract.Device.MANUFACTURER_ID
+                                        + " = ? AND "
+                                        + DevicesContract.Device.MODEL
+                                        + " = ?",
+                                new String[] {
+                                        Long.toString(localManufacturer.id),
+                                        deletedDevice.getModel()
+                                })
+                        .build());
+
+                stats.numDeletes++;
+            }
+        }
+
+        if (delta.getManufacturers() == null) {
+            return;
+        }
+
+        for (Manufacturer manufacturer : delta.getManufacturers()) {
+            // The upsert's result identifies the existing row as well
+            final int manufacturerUpsertOperationIndex =
+                    batch.addReferenced(newManufacturerInsert(MANUFACTURER_UPSERT_URI,
+                            manufacturer)
+                            .withYieldAllowed(true)
+                            .build());
+
+            stats.numEntries++;
+
+            if (manufacturer.getDevices() == null) {
+                continue;
+            }
+
+            for (Device device : manufacturer.getDevices()) {
+                batch.add(newDeviceInsert(DEVICE_UPSERT_URI, device),
+                        DevicesContract.Device.MANUFACTURER_ID,
+                        manufacturerUpsertOperationIndex);
+
+                stats.numEntries++;
+            }
+        }
+    }
+
+    private static ContentProviderOperation.Builder newManufacturerInsert(Manufacturer manufacturer) {
+        return newManufacturerInsert(DevicesContract.Manufacturer.CONTENT_URI,
+                manufacturer);
+    }
+
+    private static ContentProviderOperation.Builder newManufacturerInsert(Uri uri,
+                                                                          Manufacturer manufacturer) {
+        return ContentProviderOperation
+                .newInsert(uri)
+                .withValue(DevicesContract.Manufacturer.SHORT_NAME,
+                        manufacturer.getShortName())
+                .withValue(DevicesContract.Manufacturer.LONG_NAME,
+                        manufacturer.getLongName());
+    }
+
+    private static ContentProviderOperation.Builder newDeviceInsert(Device device) {
+        return newDeviceInsert(DevicesContract.Device.CONTENT_URI, device);
+    }
+
+    private static ContentProviderOperation.Builder newDeviceInsert(Uri uri,
+                                                                    Device device) {
+        return ContentProviderOperation
+                .newInsert(uri)
+                .withValue(DevicesContract.Device.MODEL,
+                        device.getModel())
+                .withValue(DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                        device.getDisplaySizeInches())
+                .withValue(DevicesContract.Device.MEMORY_MB,
+                        device.getMemoryMb())
+                .withValue(DevicesContract.Device.NICKNAME,
+                        device.getNickname());
+    }
+
+    private static ContentProviderOperation newDeviceDelete(LocalDevice localDevice) {
+        return ContentProviderOperation
+                .newDelete(ContentUris
+                        .withAppendedId(DevicesContract.Device.CONTENT_URI,
+                                localDevice.id))
+                .build();
+    }
+
+    /**
+     * Reads the local manufacturers, keyed by short name. Rows that
+     * duplicate a short name are scheduled for deletion.
+     */
+    private static Map<String, LocalManufacturer> queryManufacturers(ContentProviderClient provider,
+                                                                     ArrayList<ContentProviderOperation> operations,
+                                                                     SyncStats stats)
+            throws RemoteException {
+        final Map<String, LocalManufacturer> manufacturers = new HashMap<>();
+        final Cursor cursor =
+                provider.query(DevicesContract.Manufacturer.CONTENT_URI,
+                        MANUFACTURER_PROJECTION,
+                        null,
+                        null,
+                        DevicesContract.Manufacturer._ID);
+
+        if (cursor == null) {
+            return manufacturers;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                final LocalManufacturer manufacturer =
+                        new LocalManufacturer(cursor.getLong(0),
+                                cursor.getString(1),
+                                cursor.getString(2));
+
+                if (manufacturers.containsKey(manufacturer.shortName)) {
+                    operations.add(ContentProviderOperation
+                            .newDelete(ContentUris
+                                    .withAppendedId(DevicesContract
+                                            .Manufacturer.CONTENT_URI,
+                                            manufacturer.id))
+                            .build());
+
+                    stats.numDeletes++;
+                } else {
+                    manufacturers.put(manufacturer.shortName, manufacturer);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return manufacturers;
+    }
+
+    /**
+     * Reads the local devices, grouped by manufacturer ID and keyed by
+     * model. Rows that duplicate a natural key are scheduled for deletion.
+     */
+    private static Map<Long, Map<String, LocalDevice>> queryDevices(ContentProviderClient provider,
+                                                                    ArrayList<ContentProviderOperation> operations,
+                                                                    SyncStats stats)
+            throws RemoteException {
+        final Map<Long, Map<String, LocalDevice>> devices = new HashMap<>();
+        final Cursor cursor =
+                provider.query(DevicesContract.Device.CONTENT_URI,
+                        DEVICE_PROJECTION,
+                        null,
+                        null,
+                        DevicesContract.Device._ID);
+
+        if (cursor == null) {
+            return devices;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                final Long manufacturerId =
+                        (cursor.isNull(1) ? null : cursor.getLong(1));
+
+                final LocalDevice device = new LocalDevice(cursor.getLong(0),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getFloat(4),
+                        cursor.getFloat(5));
+
+                Map<String, LocalDevice> manufacturerDevices =
+                        devices.get(manufacturerId);
+
+                if (manufacturerDevices == null) {
+                    manufacturerDevices = new HashMap<>();
+                    devices.put(manufacturerId, manufacturerDevices);
+                }
+
+                if (manufacturerDevices.containsKey(device.model)) {
+                    operations.add(newDeviceDelete(device));
+                    stats.numDeletes++;
+                } else {
+                    manufacturerDevices.put(device.model, device);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return devices;
+    }
+
+    private static class LocalManufacturer {
+        private final long id;
+        private final String shortName;
+        private final String longName;
+
+        /**
+         * The devices of this manufacturer, keyed by model. This is only
+         * populated for manufacturers that are part of the response.
+         */
+        private Map<String, LocalDevice> devices = new HashMap<>();
+
+        private LocalManufacturer(long id, String shortName, String longName) {
+            this.id = id;
+            this.shortName = shortName;
+            this.longName = longName;
+        }
+    }
+
+    private static class LocalDevice {
+        private final long id;
+        private final String model;
+        private final String nickname;
+        private final float memoryMb;
+        private final float displaySizeInches;
+
+        private LocalDevice(long id,
+                            String model,
+                            String nickname,
+                            float memoryMb,
+                            float displaySizeInches) {
+            this.id = id;
+            this.model = model;
+            this.nickname = nickname;
+            this.memoryMb = memoryMb;
+            this.displaySizeInches = displaySizeInches;
+        }
+
+        private boolean differsFrom(Device device) {
+            return !TextUtils.equals(nickname, device.getNickname())
+                    || Float.compare(memoryMb, device.getMemoryMb()) != 0
+                    || Float.compare(displaySizeInches,
+                    device.getDisplaySizeInches()) != 0;
+        }
+    }
+}
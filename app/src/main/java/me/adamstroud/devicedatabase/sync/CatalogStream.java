@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SyncStats;
+import android.os.RemoteException;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.model.Device;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+
+/**
+ * Writes the catalog to the provider while it is being parsed, so that
+ * neither the response nor the operations are ever held in memory as a
+ * whole.
+ *
+ * <p>Manufacturers and devices are upserted on their natural keys in
+ * batches of up to {@link #ROWS_PER_BATCH} of each. The manufacturers of
+ * a batch are written first, with a single
+ * {@link ContentProviderClient#applyBatch(java.util.ArrayList)}, so that
+ * the provider sends one set of change notifications for all of them,
+ * and the devices are then bulk inserted with the IDs that it returned.
+ * Every row that is written is
+ * stamped with a new {@link DevicesContract.SyncColumns#SYNC_TOKEN}, and
+ * once the whole response has been read, the rows that were not stamped
+ * are deleted. Rows that were added locally have no token, so they are
+ * deleted as well, as the catalog is mirrored like in every other full
+ * sync. If the sync fails part of the way through, nothing is deleted,
+ * so the catalog still holds every row it held before.</p>
+ *
+ * <p>Devices that the response lists before the short name of their
+ * manufacturer are held until the short name has been read.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class CatalogStream {
+    /**
+     * The number of manufacturers, and of devices, that are written in
+     * each batch.
+     */
+    private static final int ROWS_PER_BATCH = 500;
+
+    private final ContentProviderClient provider;
+    private final Gson gson;
+    private final SyncStats stats;
+    private final long syncToken;
+    private final List<ContentValues> pendingManufacturers =
+            new ArrayList<>(ROWS_PER_BATCH);
+
+    private final List<ContentValues> pendingDevices =
+            new ArrayList<>(ROWS_PER_BATCH);
+
+    /**
+     * The position in {@link #pendingManufacturers} of the manufacturer of
+     * each pending device, or -1 if the device already holds the ID of its
+     * manufacturer.
+     */
+    private final int[] pendingDeviceManufacturers = new int[ROWS_PER_BATCH];
+
+    /**
+     * The ID of the manufacturer that is being read, once it has been
+     * written, or -1.
+     */
+    private long manufacturerId;
+
+    /**
+     * The position in {@link #pendingManufacturers} of the manufacturer
+     * that is being read, while it is waiting to be written, or -1.
+     */
+    private int manufacturerIndex;
+
+    private String watermark;
+
+    /**
+     * @param gson Binds the device objects of the response.
+     * @param stats Receives the number of rows that were written, deleted
+     *              and skipped.
+     */
+    /* package */ CatalogStream(ContentProviderClient provider,
+                                Gson gson,
+                                SyncStats stats) {
+        this(provider, gson, stats, System.currentTimeMillis());
+    }
+
+    /**
+     * @param syncToken The token to stamp the written rows with. A catalog
+     *                  that is read in several parts uses the same token
+     *                  for each part.
+     */
+    /* package */ CatalogStream(ContentProviderClient provider,
+                                Gson gson,
+                                SyncStats stats,
+                                long syncToken) {
+        this.provider = provider;
+        this.gson = gson;
+        this.stats = stats;
+        this.syncToken = syncToken;
+    }
+
+    /**
+     * Reads the response and brings the local catalog in line with it.
+     */
+    /* package */ void sync(Reader reader)
+            throws IOException, RemoteException, OperationApplicationException {
+        write(reader);
+        stats.numDeletes += deleteUnstamped(provider, syncToken);
+    }
+
+    /**
+     * Reads the response and writes its rows, without deleting the rows
+     * that it does not hold.
+     */
+    /* package */ void write(Reader reader)
+            throws IOException, RemoteException, OperationApplicationException {
+        final JsonReader json = new JsonReader(reader);
+
+        json.beginObject();
+
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "manufacturers":
+                    json.beginArray();
+
+                    while (json.hasNext()) {
+                        readManufacturer(json);
+                    }
+
+                    json.endArray();
+                    break;
+                case "watermark":
+                    watermark = nextStringOrNull(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+
+        json.endObject();
+        flush();
+    }
+
+    /**
+     * Deletes the rows that were not written with the given token, which
+     * includes the rows that were never synced.
+     *
+     * @return The number of deleted rows, not counting the devices that
+     *         were deleted along with their manufacturer.
+     */
+    /* package */ static int deleteUnstamped(ContentProviderClient provider,
+                                             long syncToken)
+            throws RemoteException {
+        final String[] selectionArgs = {Long.toString(syncToken)};
+
+        // Devices of a deleted manufacturer are removed by the
+        // ON DELETE CASCADE constraint
+        return provider.delete(DevicesContract.Manufacturer.CONTENT_URI,
+                CatalogOperations.STALE_SELECTION,
+                selectionArgs)
+                + provider.delete(DevicesContract.Device.CONTENT_URI,
+                CatalogOperations.STALE_SELECTION,
+                selectionArgs);
+    }
+
+    /**
+     * @return The watermark of the response that was read, or null if it
+     *         did not have one.
+     *
+     * @see me.adamstroud.devicedatabase.api.retrofit.ManufacturersAndDevicesResponse#getWatermark()
+     */
+    /* package */ String getWatermark() {
+        return watermark;
+    }
+
+    private void readManufacturer(JsonReader json)
+            throws IOException, RemoteException, OperationApplicationException {
+        if (json.peek() == JsonToken.NULL) {
+            json.skipValue();
+            return;
+        }
+
+        String shortName = null;
+        String longName = null;
+
+        // Devices that were read before the short name
+        List<Device> devices = null;
+
+        manufacturerId = -1;
+        manufacturerIndex = -1;
+
+        json.beginObject();
+
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "short_name":
+                    shortName = nextStringOrNull(json);
+                    break;
+                case "long_name":
+                    longName = nextStringOrNull(json);
+
+                    if (isManufacturerWritten()) {
+                        writeLongName(shortName, longName);
+                    }
+                    break;
+                case "devices":
+                    if (!isManufacturerWritten() && shortName != null) {
+                        writeManufacturer(shortName, longName);
+                    }
+
+                    devices = readDevices(json, devices);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+
+        json.endObject();
+
+        if (shortName == null) {
+            stats.numSkippedEntries +=
+                    1 + (devices == null ? 0 : devices.size());
+            return;
+        }
+
+        if (!isManufacturerWritten()) {
+            writeManufacturer(shortName, longName);
+        }
+
+        if (devices != null) {
+            for (Device device : devices) {
+                writeDevice(device);
+            }
+        }
+    }
+
+    /**
+     * Writes the devices if their manufacturer has already been written,
+     * or adds them to the given list otherwise.
+     *
+     * @return The list of devices that still need to be written.
+     */
+    private List<Device> readDevices(JsonReader json, List<Device> devices)
+            throws IOException, RemoteException, OperationApplicationException {
+        if (json.peek() == JsonToken.NULL) {
+            json.skipValue();
+            return devices;
+        }
+
+        json.beginArray();
+
+        while (json.hasNext()) {
+            final Device device = gson.fromJson(json, Device.class);
+
+            if (device == null || device.getModel() == null) {
+                stats.numSkippedEntries++;
+            } else if (isManufacturerWritten()) {
+                writeDevice(device);
+            } else {
+                if (devices == null) {
+                    devices = new ArrayList<>();
+                }
+
+                devices.add(device);
+            }
+        }
+
+        json.endArray();
+
+        return devices;
+    }
+
+    /**
+     * @return true if the manufacturer that is being read has been written
+     *         or is waiting to be written.
+     */
+    private boolean isManufacturerWritten() {
+        return manufacturerId != -1 || manufacturerIndex != -1;
+    }
+
+    private void writeManufacturer(String shortName, String longName)
+            throws RemoteException, OperationApplicationException {
+        stats.numEntries++;
+
+        manufacturerIndex = pendingManufacturers.size();
+        pendingManufacturers.add(manufacturerValues(shortName, longName));
+
+        if (pendingManufacturers.size() == ROWS_PER_BATCH) {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the long name of the manufacturer that is being read, when the
+     * response lists it after the devices. The manufacturer has already
+     * been counted.
+     */
+    private void writeLongName(String shortName, String longName)
+            throws RemoteException, OperationApplicationException {
+        if (manufacturerIndex != -1) {
+            pendingManufacturers.get(manufacturerIndex)
+                    .put(DevicesContract.Manufacturer.LONG_NAME, longName);
+        } else {
+            // The upsert updates the row that was already written
+            pendingManufacturers.add(manufacturerValues(shortName, longName));
+
+            if (pendingManufacturers.size() == ROWS_PER_BATCH) {
+                flush();
+            }
+        }
+    }
+
+    private ContentValues manufacturerValues(String shortName, String longName) {
+        final ContentValues values = new ContentValues();
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+        values.put(DevicesContract.Manufacturer.LONG_NAME, longName);
+        values.put(DevicesContract.Manufacturer.SYNC_TOKEN, syncToken);
+
+        return values;
+    }
+
+    private void writeDevice(Device device)
+            throws RemoteException, OperationApplicationException {
+        final ContentValues values = new ContentValues();
+        values.put(DevicesContract.Device.MODEL, device.getModel());
+        values.put(DevicesContract.Device.NICKNAME, device.getNickname());
+        values.put(DevicesContract.Device.MEMORY_MB, device.getMemoryMb());
+        values.put(DevicesContract.Device.DISPLAY_SIZE_INCHES,
+                device.getDisplaySizeInches());
+        values.put(DevicesContract.Device.SYNC_TOKEN, syncToken);
+
+        if (manufacturerId != -1) {
+            values.put(DevicesContract.Device.MANUFACTURER_ID, manufacturerId);
+        }
+
+        pendingDeviceManufacturers[pendingDevices.size()] = manufacturerIndex;
+        pendingDevices.add(values);
+
+        if (pendingDevices.size() == ROWS_PER_BATCH) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending manufacturers, and then the pending devices with
+     * the IDs of their manufacturers.
+     */
+    private void flush() throws RemoteException, OperationApplicationException {
+        if (!pendingManufacturers.isEmpty()) {
+            final ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<>(pendingManufacturers.size());
+
+            for (ContentValues values : pendingManufacturers) {
+                operations.add(ContentProviderOperation
+                        .newInsert(CatalogOperations.MANUFACTURER_UPSERT_URI)
+                        .withValues(values)
+                        .build());
+            }
+
+            final ContentProviderResult[] results =
+                    provider.applyBatch(operations);
+
+            for (int i = 0; i < pendingDevices.size(); i++) {
+                if (pendingDeviceManufacturers[i] != -1) {
+                    pendingDevices.get(i)
+                            .put(DevicesContract.Device.MANUFACTURER_ID,
+                                    ContentUris.parseId(results[pendingDeviceManufacturers[i]].uri));
+                }
+            }
+
+            if (manufacturerIndex != -1) {
+                manufacturerId =
+                        ContentUris.parseId(results[manufacturerIndex].uri);
+
+                manufacturerIndex = -1;
+            }
+
+            pendingManufacturers.clear();
+        }
+
+        if (!pendingDevices.isEmpty()) {
+            stats.numEntries += provider.bulkInsert(CatalogOperations.DEVICE_UPSERT_URI,
+                    pendingDevices.toArray(new ContentValues[pendingDevices
+                            .size()]));
+
+            pendingDevices.clear();
+        }
+    }
+
+    private static String nextStringOrNull(JsonReader json)
+            throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+
+        return json.nextString();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Applies a list of operations as a series of
+ * {@link ContentProviderClient#applyBatch(ArrayList)} calls, each of which
+ * stays well below the Binder transaction limit. A chunk is applied as
+ * soon as the next operation would not fit in it, so only one chunk is
+ * held in memory at a time. The results of a chunk are dropped once it
+ * has been applied, apart from the IDs of the rows that later operations
+ * may refer to.
+ *
+ * <p>Operations that need the ID of a row inserted by an earlier operation
+ * are added with {@link #add(ContentProviderOperation.Builder, String, int)},
+ * and the earlier operation is added with {@link #addReferenced}. If the
+ * earlier operation is in the same chunk, a back reference is used.
+ * Otherwise the chunk that holds it has already been applied, and the ID
+ * that was kept from its result is used.</p>
+ *
+ * <p>Chunks preferably end at operations that allow the provider to yield,
+ * which are placed at manufacturer boundaries.</p>
+ *
+ * <p>Each chunk is applied in its own transaction, so a chunk that fails
+ * only rolls back its own operations. Every chunk that was applied before
+ * it stays committed, and since an operation can only refer to rows that
+ * are in the same chunk or that are already committed, the catalog never
+ * holds a device whose manufacturer is missing.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class ChunkedBatch {
+    /**
+     * The Binder transaction buffer is 1MB and is shared by every
+     * transaction that is in flight in the process, so a chunk is kept to
+     * a fraction of it.
+     */
+    private static final int DEFAULT_MAX_CHUNK_BYTES = 256 * 1024;
+
+    private static final int DEFAULT_MAX_CHUNK_OPERATIONS = 1000;
+
+    /**
+     * An upper bound for the space taken up by an ID column, whether it
+     * holds a value or a back reference.
+     */
+    private static final int ID_VALUE_BYTES = 128;
+
+    private final ContentProviderClient provider;
+    private final int maxChunkBytes;
+    private final int maxChunkOperations;
+    private final ArrayList<ContentProviderOperation> chunk = new ArrayList<>();
+
+    /**
+     * The IDs of the rows inserted by the applied operations that were
+     * added with {@link #addReferenced}, keyed by operation index.
+     */
+    private final SparseArray<Long> referencedIds = new SparseArray<>();
+
+    /**
+     * The indexes of the operations of {@link #chunk} that were added with
+     * {@link #addReferenced}.
+     */
+    private final ArrayList<Integer> chunkReferences = new ArrayList<>();
+
+    /**
+     * The index of the first operation of {@link #chunk}.
+     */
+    private int chunkStart;
+
+    private int chunkBytes;
+    private int chunkCount;
+
+    /* package */ ChunkedBatch(ContentProviderClient provider) {
+        this(provider, DEFAULT_MAX_CHUNK_OPERATIONS, DEFAULT_MAX_CHUNK_BYTES);
+    }
+
+    /* package */ ChunkedBatch(ContentProviderClient provider,
+                               int maxChunkOperations,
+                               int maxChunkBytes) {
+        this.provider = provider;
+        this.maxChunkOperations = maxChunkOperations;
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    /**
+     * Adds an operation, first applying the current chunk if the operation
+     * does not fit in it.
+     *
+     * @return The index of the operation, for use with
+     *         {@link #add(ContentProviderOperation.Builder, String, int)}.
+     */
+    /* package */ int add(ContentProviderOperation operation)
+            throws RemoteException, OperationApplicationException {
+        final int size = sizeOf(operation);
+
+        if (!fits(size, operation.isYieldAllowed())) {
+            applyChunk();
+        }
+
+        return append(operation, size);
+    }
+
+    /**
+     * Adds an operation that inserts a row whose ID is used by later
+     * operations, first applying the current chunk if the operation does
+     * not fit in it.
+     *
+     * @return The index of the operation, for use with
+     *         {@link #add(ContentProviderOperation.Builder, String, int)}.
+     */
+    /* package */ int addReferenced(ContentProviderOperation operation)
+            throws RemoteException, OperationApplicationException {
+        final int index = add(operation);
+
+        chunkReferences.add(index);
+        return index;
+    }
+
+    /**
+     * Adds an operation that sets a column to the ID of the row inserted
+     * by an earlier operation, first applying the current chunk if the
+     * operation does not fit in it.
+     *
+     * @param builder The operation, without the ID column.
+     * @param idColumn The column that receives the ID.
+     * @param idOperationIndex The index of the earlier operation, as
+     *                         returned by {@link #addReferenced}.
+     *
+     * @return The index of the operation.
+     */
+    /* package */ int add(ContentProviderOperation.Builder builder,
+                          String idColumn,
+                          int idOperationIndex)
+            throws RemoteException, OperationApplicationException {
+        // The ID is only known once it is decided which chunk the
+        // operation goes in, so it is measured without it
+        final ContentProviderOperation measured = builder.build();
+        final int size = sizeOf(measured) + ID_VALUE_BYTES;
+
+        if (!fits(size, measured.isYieldAllowed())) {
+            applyChunk();
+        }
+
+        final ContentProviderOperation operation;
+
+        if (idOperationIndex >= chunkStart) {
+            operation = builder
+                    .withValueBackReference(idColumn,
+                            idOperationIndex - chunkStart)
+                    .build();
+        } else {
+            final Long id = referencedIds.get(idOperationIndex);
+
+            if (id == null) {
+                throw new IllegalArgumentException("Operation "
+                        + idOperationIndex
+                        + " was not added with addReferenced()");
+            }
+
+            operation = builder.withValue(idColumn, id).build();
+        }
+
+        return append(operation, size);
+    }
+
+    /**
+     * @return The number of operations that have been added.
+     */
+    /* package */ int size() {
+        return chunkStart + chunk.size();
+    }
+
+    /**
+     * @return The number of chunks that have been applied.
+     */
+    /* package */ int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Applies the operations that have not been applied yet.
+     *
+     * @return The number of operations that have been applied.
+     */
+    /* package */ int finish()
+            throws RemoteException, OperationApplicationException {
+        applyChunk();
+
+        return size();
+    }
+
+    /**
+     * A chunk that is more than half full is also ended at a yield point,
+     * so that a manufacturer and its devices usually share a chunk.
+     */
+    private boolean fits(int size, boolean yieldAllowed) {
+        if (chunk.isEmpty()) {
+            return true;
+        }
+
+        if (yieldAllowed
+                && (chunk.size() > maxChunkOperations / 2
+                || chunkBytes > maxChunkBytes / 2)) {
+            return false;
+        }
+
+        return chunk.size() < maxChunkOperations
+                && chunkBytes + size <= maxChunkBytes;
+    }
+
+    private int append(ContentProviderOperation operation, int size) {
+        chunk.add(operation);
+        chunkBytes += size;
+
+        return size() - 1;
+    }
+
+    private void applyChunk()
+            throws RemoteException, OperationApplicationException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        final ContentProviderResult[] chunkResults =
+                provider.applyBatch(chunk);
+
+        for (int index : chunkReferences) {
+            final ContentProviderResult result =
+                    chunkResults[index - chunkStart];
+
+            referencedIds.put(index, (result.uri == null
+                    ? (long) result.count
+                    : ContentUris.parseId(result.uri)));
+        }
+
+        chunkReferences.clear();
+
+        chunkStart += chunk.size();
+        chunkCount++;
+        chunk.clear();
+        chunkBytes = 0;
+    }
+
+    /**
+     * @return The number of bytes that the operation takes up in a Binder
+     *         transaction.
+     */
+    private static int sizeOf(ContentProviderOperation operation) {
+        final Parcel parcel = Parcel.obtain();
+
+        try {
+            operation.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.os.Build;
+
+/**
+ * Releases {@link ContentProviderClient}s with the method that the
+ * platform provides.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ final class ContentProviderClients {
+    private ContentProviderClients() {
+        // no-op
+    }
+
+    /**
+     * Releases the client, which must not be used afterwards.
+     */
+    /* package */ static void release(ContentProviderClient client) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            close(client);
+        } else {
+            releaseBeforeN(client);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private static void close(ContentProviderClient client) {
+        client.close();
+    }
+
+    // release() is deprecated in favor of close() as of API 24, but it is
+    // the only way to release a client on the earlier versions
+    @SuppressWarnings("deprecation")
+    private static void releaseBeforeN(ContentProviderClient client) {
+        client.release();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.content.SyncStats;
+import android.os.RemoteException;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.adamstroud.devicedatabase.api.retrofit.DeviceService;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Downloads the catalog as a number of pages, several at a time, and
+ * writes each page with a {@link CatalogStream} while it is downloaded.
+ *
+ * <p>Each download runs on a thread of a fixed pool and writes its own
+ * page, so at most {@code concurrency} pages are in flight, and each of
+ * them only holds one bulk insert's worth of rows in memory. The first
+ * page is requested before the others, as its headers hold the number of
+ * pages.</p>
+ *
+ * <p>A ContentProviderClient is not safe for use by several threads, so
+ * each page acquires its own client rather than sharing the one that the
+ * sync framework passed in, which is only used on the sync thread.</p>
+ *
+ * <p>Every page is stamped with the same sync token, and the rows that
+ * were not stamped are only deleted once every page has been written. If
+ * a page fails, the remaining downloads are cancelled and nothing is
+ * deleted.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class PagedCatalogSync {
+    private final ContentProviderClient provider;
+    private final ContentResolver contentResolver;
+    private final DeviceService service;
+    private final Gson gson;
+    private final int concurrency;
+    private final int pageSize;
+    private final long syncToken = System.currentTimeMillis();
+
+    /**
+     * @param provider The client to use on the thread that calls
+     *                 {@link #sync(SyncStats)}.
+     * @param contentResolver Acquires the clients of the other threads.
+     * @param concurrency The maximum number of pages that are downloaded
+     *                    at the same time.
+     * @param pageSize The number of manufacturers per page.
+     */
+    /* package */ PagedCatalogSync(ContentProviderClient provider,
+                                   ContentResolver contentResolver,
+                                   DeviceService service,
+                                   Gson gson,
+                                   int concurrency,
+                                   int pageSize) {
+        if (concurrency < 1 || pageSize < 1) {
+            throw new IllegalArgumentException("Invalid concurrency or "
+                    + "page size: " + concurrency + ", " + pageSize);
+        }
+
+        this.provider = provider;
+        this.contentResolver = contentResolver;
+        this.service = service;
+        this.gson = gson;
+        this.concurrency = concurrency;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Downloads and writes every page, and then deletes the rows that are
+     * not in any of them.
+     *
+     * @param stats Receives the number of rows that were written, deleted
+     *              and skipped.
+     */
+    /* package */ void sync(SyncStats stats)
+            throws IOException, RemoteException, OperationApplicationException {
+        final Response<ResponseBody> firstPage =
+                service.getCatalogPage(0, pageSize).execute();
+
+        checkResponse(firstPage, 0);
+
+        final String pageCountHeader =
+                firstPage.headers().get(DeviceService.HEADER_PAGE_COUNT);
+
+        final int pageCount = (pageCountHeader == null
+                ? 1
+                : Integer.parseInt(pageCountHeader));
+
+        if (pageCount <= 1) {
+            add(stats, writePage(provider, firstPage));
+        } else {
+            writePages(firstPage, pageCount, stats);
+        }
+
+        stats.numDeletes +=
+                CatalogStream.deleteUnstamped(provider, syncToken);
+    }
+
+    private void writePages(Response<ResponseBody> firstPage,
+                            int pageCount,
+                            SyncStats stats)
+            throws IOException, RemoteException, OperationApplicationException {
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(concurrency, pageCount));
+
+        final List<Future<SyncStats>> futures = new ArrayList<>(pageCount);
+
+        try {
+            // The first page has already been requested, so it is the
+            // first one to be written
+            futures.add(executor.submit(new PageTask(0, firstPage)));
+
+            for (int page = 1; page < pageCount; page++) {
+                futures.add(executor.submit(new PageTask(page, null)));
+            }
+
+            for (Future<SyncStats> future : futures) {
+                add(stats, future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sync was cancelled");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            } else if (cause instanceof OperationApplicationException) {
+                throw (OperationApplicationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            // Cancels the remaining pages if one of them failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param client The provider client of the calling thread.
+     *
+     * @return The number of rows that were written and skipped.
+     */
+    private SyncStats writePage(ContentProviderClient client,
+                                Response<ResponseBody> response)
+            throws IOException, RemoteException, OperationApplicationException {
+        final SyncStats pageStats = new SyncStats();
+        final ResponseBody body = response.body();
+
+        try {
+            new CatalogStream(client, gson, pageStats, syncToken)
+                    .write(body.charStream());
+        } finally {
+            body.close();
+        }
+
+        return pageStats;
+    }
+
+    private static void checkResponse(Response<ResponseBody> response,
+                                      int page) throws IOException {
+        if (!response.isSuccessful()) {
+            response.errorBody().close();
+
+            throw new IOException("Could not download page " + page
+                    + " -> " + response.code());
+        }
+    }
+
+    private static void add(SyncStats total, SyncStats page) {
+        total.numEntries += page.numEntries;
+        total.numSkippedEntries += page.numSkippedEntries;
+        total.numDeletes += page.numDeletes;
+    }
+
+    private class PageTask implements Callable<SyncStats> {
+        private final int page;
+        private Response<ResponseBody> response;
+
+        /**
+         * @param response The response for the page, or null if the page
+         *                 has not been requested yet.
+         */
+        private PageTask(int page, Response<ResponseBody> response) {
+            this.page = page;
+            this.response = response;
+        }
+
+        @Override
+        public SyncStats call()
+                throws IOException, RemoteException, OperationApplicationException {
+            if (response == null) {
+                response = service.getCatalogPage(page, pageSize).execute();
+                checkResponse(response, page);
+            }
+
+            final ContentProviderClient pageProvider = contentResolver
+                    .acquireContentProviderClient(DevicesContract.AUTHORITY);
+
+            if (pageProvider == null) {
+                response.body().close();
+                throw new RemoteException();
+            }
+
+            try {
+                return writePage(pageProvider, response);
+            } finally {
+                ContentProviderClients.release(pageProvider);
+            }
+        }
+    }
+}
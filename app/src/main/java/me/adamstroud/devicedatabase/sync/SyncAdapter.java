@@ -19,7 +19,7 @@ package me.adamstroud.devicedatabase.sync;
 import android.accounts.Account;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
-import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.OperationApplicationException;
 import android.content.SyncResult;
@@ -27,25 +27,91 @@ import android.os.Bundle;
 import android.os.RemoteException;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
+import me.adamstroud.devicedatabase.api.retrofit.CatalogDeltaResponse;
+import me.adamstroud.devicedatabase.api.retrofit.DeviceService;
 import me.adamstroud.devicedatabase.api.retrofit.ManufacturersAndDevicesResponse;
 import me.adamstroud.devicedatabase.api.retrofit.WebServiceClient;
-import me.adamstroud.devicedatabase.model.Device;
-import me.adamstroud.devicedatabase.model.Manufacturer;
-import me.adamstroud.devicedatabase.provider.DevicesContract;
-import retrofit2.Call;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
 import retrofit2.Response;
 
 /**
  * Handles the sync operations when using the Android sync framework.
  *
+ * <p>The validators of the last catalog that was applied are sent with
+ * each request, so a server that supports them can answer with 304 (Not
+ * Modified), in which case nothing is parsed or written. For servers that
+ * do not, the body is hashed, and a catalog with the same hash as the
+ * last one is not applied again. Only a sync that is not streamed can
+ * skip the database work this way, as a streamed catalog is written
+ * before its hash is known.</p>
+ *
+ * <p>If the last catalog had a watermark, only the changes since that
+ * watermark are downloaded and applied. A full sync is performed if
+ * there is no watermark or if the server rejects it.</p>
+ *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
 public class SyncAdapter extends AbstractThreadedSyncAdapter {
     private static final String TAG = SyncAdapter.class.getSimpleName();
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Sync extra that rewrites every row of the response and then deletes
+     * every other row, rather than only writing the rows that changed.
+     * The catalog is downloaded and applied even if it has not changed.
+     *
+     * @see CatalogOperations#replaceAll
+     */
+    public static final String EXTRA_REPLACE_ALL = "replaceAll";
+
+    /**
+     * Sync extra that writes the response to the database while it is
+     * being downloaded, so that memory use does not grow with the size
+     * of the catalog. {@link #EXTRA_REPLACE_ALL} is ignored.
+     *
+     * @see CatalogStream
+     */
+    public static final String EXTRA_STREAM = "stream";
+
+    /**
+     * Sync extra that downloads the whole catalog as a number of pages,
+     * several at a time, and writes each page while it is downloaded.
+     * {@link #EXTRA_REPLACE_ALL} and {@link #EXTRA_STREAM} are ignored.
+     *
+     * @see PagedCatalogSync
+     */
+    public static final String EXTRA_PAGED = "paged";
+
+    /**
+     * Sync extra that holds the maximum number of pages that are
+     * downloaded at the same time when {@link #EXTRA_PAGED} is set.
+     */
+    public static final String EXTRA_CONCURRENCY = "concurrency";
+
+    /**
+     * Sync extra that holds the number of manufacturers per page when
+     * {@link #EXTRA_PAGED} is set.
+     */
+    public static final String EXTRA_PAGE_SIZE = "pageSize";
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
     public SyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
@@ -62,86 +128,341 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
                               String authority,
                               ContentProviderClient provider,
                               SyncResult syncResult) {
-        Call<ManufacturersAndDevicesResponse> call = WebServiceClient
-                .getInstance()
-                .getService()
-                .getManufacturersAndDevices();
+        final boolean paged = extras.getBoolean(EXTRA_PAGED, false);
+        final boolean stream = extras.getBoolean(EXTRA_STREAM, false);
+        final boolean replaceAll =
+                !stream && extras.getBoolean(EXTRA_REPLACE_ALL, false);
 
         try {
-            // Perform synchronous web service call
-            Response<ManufacturersAndDevicesResponse> wrappedResponse =
-                    call.execute();
+            final SyncState state = new SyncState(provider);
 
-            ArrayList<ContentProviderOperation> operations =
-                    generateDatabaseOperations(wrappedResponse.body());
+            if (paged) {
+                performPagedSync(provider,
+                        getContext().getContentResolver(),
+                        state,
+                        extras.getInt(EXTRA_CONCURRENCY, DEFAULT_CONCURRENCY),
+                        extras.getInt(EXTRA_PAGE_SIZE, DEFAULT_PAGE_SIZE),
+                        syncResult);
+                return;
+            }
 
-            provider.applyBatch(operations);
+            final String watermark =
+                    state.get(SyncState.KEY_CATALOG_WATERMARK);
 
-        } catch (IOException
-                | OperationApplicationException
-                | RemoteException e) {
+            final WebServiceClient client = WebServiceClient.getInstance();
+
+            if (replaceAll || watermark == null) {
+                performFullSync(provider,
+                        state,
+                        client.getService(),
+                        client.getGson(),
+                        stream,
+                        replaceAll,
+                        !replaceAll,
+                        syncResult);
+            } else if (!performDeltaSync(provider,
+                    state,
+                    watermark,
+                    syncResult)) {
+                // The local catalog may be older than the last full
+                // catalog, so its validators cannot be trusted either
+                performFullSync(provider,
+                        state,
+                        client.getService(),
+                        client.getGson(),
+                        stream,
+                        false,
+                        false,
+                        syncResult);
+            }
+        } catch (IOException | RemoteException e) {
+            // Lets the sync framework retry. Chunks that were applied
+            // before the failure stay committed, and the retry repairs
+            // the rest of the catalog.
+            syncResult.stats.numIoExceptions++;
             Log.e(TAG, "Could not perform sync", e);
+        } catch (JsonParseException e) {
+            syncResult.stats.numParseExceptions++;
+            Log.e(TAG, "Could not perform sync", e);
+        } catch (OperationApplicationException e) {
+            syncResult.databaseError = true;
+            Log.e(TAG, "Could not perform sync", e);
+        }
+    }
+
+    /**
+     * Applies the changes since the watermark of the last sync.
+     *
+     * @return false if the server rejected the watermark, in which case a
+     *         full sync is needed.
+     */
+    private static boolean performDeltaSync(ContentProviderClient provider,
+                                            SyncState state,
+                                            String watermark,
+                                            SyncResult syncResult)
+            throws IOException,
+            RemoteException,
+            OperationApplicationException {
+        final Response<CatalogDeltaResponse> response = WebServiceClient
+                .getInstance()
+                .getService()
+                .getCatalogChanges(watermark)
+                .execute();
+
+        switch (response.code()) {
+            case HttpURLConnection.HTTP_BAD_REQUEST:
+            case HttpURLConnection.HTTP_NOT_FOUND:
+            case HttpURLConnection.HTTP_GONE:
+                Log.d(TAG, "Watermark rejected -> " + response.code());
+                state.set(SyncState.KEY_CATALOG_WATERMARK, null);
+                return false;
+        }
+
+        if (!response.isSuccessful()) {
+            syncResult.stats.numIoExceptions++;
+            Log.e(TAG, "Could not download catalog changes -> "
+                    + response.code());
+            return true;
+        }
+
+        final CatalogDeltaResponse delta = response.body();
+        final ChunkedBatch batch = new ChunkedBatch(provider);
+
+        CatalogOperations.changes(provider,
+                delta,
+                syncResult.stats,
+                batch);
+
+        batch.finish();
+
+        Log.d(TAG, "Applied " + batch.size() + " changes in "
+                + batch.getChunkCount() + " chunks");
+
+        if (batch.size() > 0) {
+            // The local catalog no longer matches the last full catalog
+            state.set(SyncState.KEY_CATALOG_ETAG, null);
+            state.set(SyncState.KEY_CATALOG_LAST_MODIFIED, null);
+            state.set(SyncState.KEY_CATALOG_HASH, null);
         }
+
+        state.set(SyncState.KEY_CATALOG_WATERMARK, delta.getWatermark());
+        state.save();
+
+        return true;
+    }
+
+    /**
+     * Downloads the whole catalog a page at a time and writes each page
+     * while it is downloaded.
+     */
+    private static void performPagedSync(ContentProviderClient provider,
+                                         ContentResolver contentResolver,
+                                         SyncState state,
+                                         int concurrency,
+                                         int pageSize,
+                                         SyncResult syncResult)
+            throws IOException,
+            RemoteException,
+            OperationApplicationException {
+        final WebServiceClient client = WebServiceClient.getInstance();
+
+        new PagedCatalogSync(provider,
+                contentResolver,
+                client.getService(),
+                client.getGson(),
+                concurrency,
+                pageSize).sync(syncResult.stats);
+
+        Log.d(TAG, "Synced catalog pages -> " + syncResult.stats);
+
+        // The validators and the hash describe the catalog as a single
+        // document, which the pages were not compared against
+        state.set(SyncState.KEY_CATALOG_ETAG, null);
+        state.set(SyncState.KEY_CATALOG_LAST_MODIFIED, null);
+        state.set(SyncState.KEY_CATALOG_HASH, null);
+        state.save();
     }
 
-    private ArrayList<ContentProviderOperation> generateDatabaseOperations(ManufacturersAndDevicesResponse response) {
-        final ArrayList<ContentProviderOperation> operations =
-                new ArrayList<>();
-
-        operations.add(ContentProviderOperation
-                .newDelete(DevicesContract.Device.CONTENT_URI).build());
-
-        operations.add(ContentProviderOperation
-                .newDelete(DevicesContract.Manufacturer.CONTENT_URI)
-                .build());
-
-        for (Manufacturer manufacturer : response.getManufacturers()) {
-            final ContentProviderOperation manufacturerOperation =
-                    ContentProviderOperation
-                            .newInsert(DevicesContract.Manufacturer
-                                    .CONTENT_URI)
-
-                            .withValue(DevicesContract.Manufacturer
-                                    .SHORT_NAME,
-                                       manufacturer.getShortName())
-
-                            .withValue(DevicesContract.Manufacturer
-                                    .LONG_NAME,
-                                       manufacturer.getLongName())
-                            .build();
-
-            operations.add(manufacturerOperation);
-
-            int manufacturerInsertOperationIndex =
-                    operations.size() - 1;
-
-            for (Device device : manufacturer.getDevices()) {
-                final ContentProviderOperation deviceOperation =
-                        ContentProviderOperation
-                                .newInsert(DevicesContract.Device
-                                        .CONTENT_URI)
-                                .withValueBackReference(DevicesContract
-                                        .Device.MANUFACTURER_ID,
-                                        manufacturerInsertOperationIndex)
-                                .withValue(DevicesContract.Device.MODEL,
-                                           device.getModel())
-                                .withValue(DevicesContract
-                                        .Device
-                                        .DISPLAY_SIZE_INCHES,
-                                        device.getDisplaySizeInches())
-                                .withValue(DevicesContract
-                                        .Device
-                                        .MEMORY_MB,
-                                        device.getMemoryMb())
-                                .withValue(DevicesContract
-                                        .Device
-                                        .NICKNAME, device.getNickname())
-                                .build();
-
-                operations.add(deviceOperation);
+    /**
+     * Downloads and applies the whole catalog.
+     *
+     * @param service The web API to download the catalog from.
+     * @param gson Binds the catalog to the model classes.
+     * @param conditional true to skip the catalog if it has not changed
+     *                    since the last full sync.
+     */
+    /* package */ static void performFullSync(ContentProviderClient provider,
+                                              SyncState state,
+                                              DeviceService service,
+                                              Gson gson,
+                                              boolean stream,
+                                              boolean replaceAll,
+                                              boolean conditional,
+                                              SyncResult syncResult)
+            throws IOException,
+            RemoteException,
+            OperationApplicationException {
+        // Perform synchronous web service call
+        final Response<ResponseBody> response = service
+                .downloadManufacturersAndDevices(conditional
+                                ? state.get(SyncState.KEY_CATALOG_ETAG)
+                                : null,
+                        conditional
+                                ? state.get(SyncState
+                                .KEY_CATALOG_LAST_MODIFIED)
+                                : null)
+                .execute();
+
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            Log.d(TAG, "Catalog not modified");
+            return;
+        }
+
+        if (!response.isSuccessful()) {
+            syncResult.stats.numIoExceptions++;
+            Log.e(TAG, "Could not download catalog -> " + response.code());
+            return;
+        }
+
+        final ResponseBody body = response.body();
+
+        try {
+            if (stream) {
+                streamCatalog(provider, body, state, gson, syncResult);
+            } else {
+                applyCatalog(provider,
+                        body,
+                        state,
+                        gson,
+                        replaceAll,
+                        conditional,
+                        syncResult);
             }
+        } finally {
+            body.close();
+        }
+
+        // Only saved once the catalog has been applied
+        state.set(SyncState.KEY_CATALOG_ETAG,
+                response.headers().get("ETag"));
+
+        state.set(SyncState.KEY_CATALOG_LAST_MODIFIED,
+                response.headers().get("Last-Modified"));
+
+        state.save();
+    }
+
+    /**
+     * Reads the whole catalog and applies it, unless the catalog is
+     * conditional and its hash is equal to the hash of the last catalog.
+     * The hash and the watermark of the catalog are set in the state.
+     */
+    private static void applyCatalog(ContentProviderClient provider,
+                                     ResponseBody body,
+                                     SyncState state,
+                                     Gson gson,
+                                     boolean replaceAll,
+                                     boolean conditional,
+                                     SyncResult syncResult)
+            throws IOException,
+            RemoteException,
+            OperationApplicationException {
+        final byte[] bytes = body.bytes();
+        final MessageDigest digest = newDigest();
+        final String hash = toHex(digest.digest(bytes));
+
+        if (conditional
+                && hash.equals(state.get(SyncState.KEY_CATALOG_HASH))) {
+            Log.d(TAG, "Catalog unchanged");
+            return;
+        }
+
+        final ManufacturersAndDevicesResponse response = gson
+                .fromJson(new InputStreamReader(new ByteArrayInputStream(bytes),
+                                charsetOf(body)),
+                        ManufacturersAndDevicesResponse.class);
+
+        // The operations are applied in chunks, as the provider runs in a
+        // different process and the whole catalog may not fit in a single
+        // Binder transaction
+        final ChunkedBatch batch = new ChunkedBatch(provider);
+
+        if (replaceAll) {
+            CatalogOperations.replaceAll(response,
+                    System.currentTimeMillis(),
+                    batch);
+        } else {
+            CatalogOperations.diff(provider,
+                    response,
+                    syncResult.stats,
+                    batch);
+        }
+
+        batch.finish();
+
+        Log.d(TAG, "Applied " + batch.size() + " operations in "
+                + batch.getChunkCount() + " chunks");
+
+        state.set(SyncState.KEY_CATALOG_HASH, hash);
+        state.set(SyncState.KEY_CATALOG_WATERMARK, response.getWatermark());
+    }
+
+    /**
+     * Writes the catalog while it is being downloaded. The hash and the
+     * watermark of the catalog are set in the state.
+     */
+    private static void streamCatalog(ContentProviderClient provider,
+                                      ResponseBody body,
+                                      SyncState state,
+                                      Gson gson,
+                                      SyncResult syncResult)
+            throws IOException, RemoteException, OperationApplicationException {
+        final MessageDigest digest = newDigest();
+        final Reader reader = new InputStreamReader(
+                new DigestInputStream(body.byteStream(), digest),
+                charsetOf(body));
+
+        final CatalogStream catalogStream =
+                new CatalogStream(provider, gson, syncResult.stats);
+
+        catalogStream.sync(reader);
+
+        // The hash covers anything that follows the JSON document as well
+        final char[] buffer = new char[1024];
+
+        while (reader.read(buffer) != -1) {
+            // no-op
+        }
+
+        Log.d(TAG, "Streamed catalog -> " + syncResult.stats);
+
+        state.set(SyncState.KEY_CATALOG_HASH, toHex(digest.digest()));
+        state.set(SyncState.KEY_CATALOG_WATERMARK,
+                catalogStream.getWatermark());
+    }
+
+    private static Charset charsetOf(ResponseBody body) {
+        final MediaType contentType = body.contentType();
+
+        return (contentType == null ? UTF_8 : contentType.charset(UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release provides SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
         }
 
-        return operations;
+        return hex.toString();
     }
-}
\ No newline at end of file
+}
@@ -16,21 +16,17 @@
 
 package me.adamstroud.devicedatabase.sync;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
-import android.content.ContentResolver;
+import android.content.ContentProviderClient;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.content.SyncStats;
 import android.os.RemoteException;
 import android.util.Log;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import me.adamstroud.devicedatabase.api.retrofit.ManufacturersAndDevicesResponse;
 import me.adamstroud.devicedatabase.api.retrofit.WebServiceClient;
-import me.adamstroud.devicedatabase.model.Device;
-import me.adamstroud.devicedatabase.model.Manufacturer;
 import me.adamstroud.devicedatabase.provider.DevicesContract;
 import rx.Observable;
 import rx.Subscriber;
@@ -42,8 +38,8 @@ import rx.schedulers.Schedulers;
  *
  * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
  */
-public class SyncManager extends Subscriber<List<ContentProviderResult>>
-    implements Func1<ManufacturersAndDevicesResponse, Observable<ContentProviderResult>> {
+public class SyncManager extends Subscriber<List<Integer>>
+    implements Func1<ManufacturersAndDevicesResponse, Observable<Integer>> {
     private static final String TAG = SyncAdapter.class.getSimpleName();
 
     private static SyncManager instance;
@@ -84,70 +80,32 @@ public class SyncManager extends Subscriber<List<ContentProviderResult>>
     }
 
     @Override
-    public void onNext(List<ContentProviderResult> contentProviderResults) {
-        Log.d(TAG, "Got response -> " + contentProviderResults.size());
+    public void onNext(List<Integer> operationCounts) {
+        Log.d(TAG, "Got response -> " + operationCounts);
     }
 
     @Override
-    public Observable<ContentProviderResult> call(ManufacturersAndDevicesResponse response) {
-        final ContentResolver contentResolver =
-                context.getContentResolver();
-
-        final ArrayList<ContentProviderOperation> operations =
-                new ArrayList<>();
-
-        final ContentProviderResult[] results;
-
-        operations.add(ContentProviderOperation
-                .newDelete(DevicesContract.Device.CONTENT_URI)
-                .build());
-
-        operations.add(ContentProviderOperation
-                .newDelete(DevicesContract.Manufacturer.CONTENT_URI)
-                .build());
-
-        for (Manufacturer manufacturer : response.getManufacturers()) {
-            final ContentProviderOperation manufacturerOperation =
-                    ContentProviderOperation
-                    .newInsert(DevicesContract.Manufacturer.CONTENT_URI)
-                    .withValue(DevicesContract.Manufacturer.SHORT_NAME,
-                            manufacturer.getShortName())
-                    .withValue(DevicesContract.Manufacturer.LONG_NAME,
-                            manufacturer.getLongName())
-                    .build();
-
-            operations.add(manufacturerOperation);
-
-            int manufacturerInsertOperationIndex = operations.size() - 1;
-
-            for (Device device : manufacturer.getDevices()) {
-                final ContentProviderOperation deviceOperation =
-                        ContentProviderOperation
-                        .newInsert(DevicesContract.Device.CONTENT_URI)
-                        .withValueBackReference(DevicesContract.Device.MANUFACTURER_ID,
-                                manufacturerInsertOperationIndex)
-                        .withValue(DevicesContract.Device.MODEL,
-                                device.getModel())
-                        .withValue(DevicesContract.Device.DISPLAY_SIZE_INCHES,
-                                device.getDisplaySizeInches())
-                        .withValue(DevicesContract.Device.MEMORY_MB,
-                                device.getMemoryMb())
-                        .withValue(DevicesContract.Device.NICKNAME,
-                                device.getNickname())
-                        .build();
-
-                operations.add(deviceOperation);
-            }
-        }
+    public Observable<Integer> call(ManufacturersAndDevicesResponse response) {
+        final ContentProviderClient provider = context
+                .getContentResolver()
+                .acquireContentProviderClient(DevicesContract.AUTHORITY);
+
+        final SyncStats stats = new SyncStats();
+        final int operationCount;
 
         try {
-            results =
-                    contentResolver.applyBatch(DevicesContract.AUTHORITY,
-                            operations);
+            final ChunkedBatch batch = new ChunkedBatch(provider);
+
+            CatalogOperations.diff(provider, response, stats, batch);
+            operationCount = batch.finish();
         } catch (RemoteException | OperationApplicationException e) {
             throw new RuntimeException(e);
+        } finally {
+            ContentProviderClients.release(provider);
         }
 
-        return Observable.from(results);
+        Log.d(TAG, "Applied catalog changes -> " + stats);
+
+        return Observable.just(operationCount);
     }
 }
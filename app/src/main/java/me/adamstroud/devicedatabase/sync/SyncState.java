@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+
+/**
+ * The values that the sync adapter keeps between syncs, read from and
+ * written to {@link DevicesContract.SyncMetadata}. Keeping them in the
+ * database rather than in preferences means they are cleared along with
+ * the catalog.
+ *
+ * <p>Changes are held until {@link #save()}, which writes them in a single
+ * batch, so they should only be saved once the sync has succeeded.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+/* package */ class SyncState {
+    /**
+     * The ETag header of the last catalog that was applied.
+     */
+    /* package */ static final String KEY_CATALOG_ETAG = "catalog_etag";
+
+    /**
+     * The Last-Modified header of the last catalog that was applied.
+     */
+    /* package */ static final String KEY_CATALOG_LAST_MODIFIED =
+            "catalog_last_modified";
+
+    /**
+     * The SHA-1 hash of the body of the last catalog that was applied.
+     */
+    /* package */ static final String KEY_CATALOG_HASH = "catalog_hash";
+
+    /**
+     * The watermark to request the next catalog changes from.
+     */
+    /* package */ static final String KEY_CATALOG_WATERMARK =
+            "catalog_watermark";
+
+    private static final String[] PROJECTION = {
+            DevicesContract.SyncMetadata.KEY,
+            DevicesContract.SyncMetadata.VALUE
+    };
+
+    private final ContentProviderClient provider;
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * The values that have been set since the last save. A null value
+     * removes the key.
+     */
+    private final Map<String, String> changes = new LinkedHashMap<>();
+
+    /**
+     * Reads every value.
+     */
+    /* package */ SyncState(ContentProviderClient provider)
+            throws RemoteException {
+        this.provider = provider;
+
+        final Cursor cursor =
+                provider.query(DevicesContract.SyncMetadata.CONTENT_URI,
+                        PROJECTION,
+                        null,
+                        null,
+                        null);
+
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    values.put(cursor.getString(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return The value, or null if the key has no value.
+     */
+    /* package */ String get(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @param value The new value, or null to remove the key.
+     */
+    /* package */ void set(String key, String value) {
+        values.put(key, value);
+        changes.put(key, value);
+    }
+
+    /**
+     * Writes the values that have been set since the last save.
+     */
+    /* package */ void save()
+            throws RemoteException, OperationApplicationException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<>(changes.size());
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                operations.add(ContentProviderOperation
+                        .newDelete(DevicesContract.SyncMetadata.CONTENT_URI)
+                        .withSelection(DevicesContract.SyncMetadata.KEY
+                                + " = ?",
+                                new String[] {change.getKey()})
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation
+                        .newInsert(DevicesContract.SyncMetadata.CONTENT_URI)
+                        .withValue(DevicesContract.SyncMetadata.KEY,
+                                change.getKey())
+                        .withValue(DevicesContract.SyncMetadata.VALUE,
+                                change.getValue())
+                        .build());
+            }
+        }
+
+        provider.applyBatch(operations);
+        changes.clear();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.widget;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.widget.TextView;
+
+/**
+ * Binds the columns of a cursor row to views without allocating. The
+ * column indexes are only looked up when the cursor changes, and text
+ * columns are copied into a {@link CharArrayBuffer} that belongs to the
+ * view holder, rather than read as new strings.
+ *
+ * <p>Columns are addressed by their position in the array passed to the
+ * constructor, which is usually the projection of the query.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public class CursorRowBinder {
+    private final String[] columns;
+    private final int[] indexes;
+
+    /**
+     * The cursor that the indexes were looked up for.
+     */
+    private Cursor cursor;
+
+    public CursorRowBinder(String... columns) {
+        this.columns = columns;
+        this.indexes = new int[columns.length];
+    }
+
+    /**
+     * Sets the cursor to read from, looking up the column indexes if it is
+     * not the cursor that was last set.
+     */
+    public void setCursor(Cursor cursor) {
+        if (cursor == this.cursor) {
+            return;
+        }
+
+        this.cursor = cursor;
+
+        if (cursor != null) {
+            for (int i = 0; i < columns.length; i++) {
+                indexes[i] = cursor.getColumnIndexOrThrow(columns[i]);
+            }
+        }
+    }
+
+    /**
+     * @param column The position of the column in the columns passed to
+     *               the constructor.
+     */
+    public long getLong(int column) {
+        return cursor.getLong(indexes[column]);
+    }
+
+    /**
+     * Shows a text column in the view.
+     *
+     * @param column The position of the column in the columns passed to
+     *               the constructor.
+     * @param buffer The buffer to copy the text into. It needs to stay
+     *               with the view, as the view keeps a reference to it.
+     */
+    public void setText(int column, TextView view, CharArrayBuffer buffer) {
+        cursor.copyStringToBuffer(indexes[column], buffer);
+        view.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.widget;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import java.util.Arrays;
+
+import me.adamstroud.devicedatabase.provider.ContentQueries;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.functions.Func2;
+
+/**
+ * A {@link RecyclerView.Adapter} over a cursor that only notifies the rows
+ * that changed when the cursor is replaced, rather than calling
+ * {@link #notifyDataSetChanged()}, so unchanged rows are not bound again
+ * and changes are animated.
+ *
+ * <p>Rows are matched by their ID, {@link BaseColumns#_ID} by default, and
+ * compared by a hash of their columns. Both are read, and the difference is computed,
+ * on the thread that emits the cursors, so only the changes are
+ * dispatched on the main thread.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public abstract class DiffingCursorAdapter<VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
+    private static final String TAG =
+            DiffingCursorAdapter.class.getSimpleName();
+
+    private final String idColumn;
+    private Cursor cursor;
+    private Rows rows = Rows.EMPTY;
+
+    protected DiffingCursorAdapter() {
+        this(BaseColumns._ID);
+    }
+
+    /**
+     * @param idColumn The column that identifies a row.
+     */
+    protected DiffingCursorAdapter(String idColumn) {
+        this.idColumn = idColumn;
+    }
+
+    /**
+     * Binds the row that the cursor is positioned on.
+     */
+    protected abstract void onBindViewHolder(VH holder, Cursor cursor);
+
+    /**
+     * Shows each cursor that is emitted, closing the cursor that it
+     * replaces. The cursors should be emitted off the main thread, as they
+     * are read and compared on the thread that emits them.
+     *
+     * @return The subscription, which stops the updates when unsubscribed.
+     *         The cursor that is shown stays open until {@link #close()},
+     *         and the cursors that were not shown yet are closed.
+     */
+    public Subscription subscribe(Observable<Cursor> cursors) {
+        final Update current = new Update(cursor, rows, null);
+        final ContentQueries.InFlightCursors inFlight =
+                new ContentQueries.InFlightCursors();
+
+        return cursors
+                .filter(new Func1<Cursor, Boolean>() {
+                    @Override
+                    public Boolean call(Cursor cursor) {
+                        return inFlight.add(cursor);
+                    }
+                })
+                .map(new Func1<Cursor, Update>() {
+                    @Override
+                    public Update call(Cursor cursor) {
+                        return new Update(cursor, readRows(cursor), null);
+                    }
+                })
+                // Each cursor is compared with the one emitted before it,
+                // which is the one that is shown when it is dispatched
+                .scan(current, new Func2<Update, Update, Update>() {
+                    @Override
+                    public Update call(Update previous, Update next) {
+                        return new Update(next.cursor,
+                                next.rows,
+                                DiffUtil.calculateDiff(new RowsCallback(previous.rows,
+                                        next.rows)));
+                    }
+                })
+                .skip(1)
+                .observeOn(AndroidSchedulers.mainThread())
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        inFlight.close();
+                    }
+                })
+                .subscribe(new Subscriber<Update>() {
+                    @Override
+                    public void onCompleted() {
+                        // no-op
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.e(TAG, "Could not update rows", e);
+                    }
+
+                    @Override
+                    public void onNext(Update update) {
+                        if (!inFlight.claim(update.cursor)) {
+                            // Closed, as the updates were stopped
+                            return;
+                        }
+
+                        final Cursor oldCursor = cursor;
+
+                        cursor = update.cursor;
+                        rows = update.rows;
+                        update.diff.dispatchUpdatesTo(DiffingCursorAdapter.this);
+
+                        if (oldCursor != null && oldCursor != cursor) {
+                            oldCursor.close();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Closes the cursor that is shown and removes its rows.
+     */
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+
+        rows = Rows.EMPTY;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public final void onBindViewHolder(VH holder, int position) {
+        if (cursor != null && cursor.moveToPosition(position)) {
+            onBindViewHolder(holder, cursor);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return rows.ids.length;
+    }
+
+    /**
+     * Called on the thread that emits the cursors.
+     *
+     * @return A hash of the columns of the row that the cursor is
+     *         positioned on. Rows with the same ID and hash are not bound
+     *         again.
+     */
+    protected int hashRow(Cursor cursor) {
+        int hash = 1;
+
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            final int columnHash;
+
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    final long longValue = cursor.getLong(i);
+                    columnHash = (int) (longValue ^ (longValue >>> 32));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    final long bits =
+                            Double.doubleToLongBits(cursor.getDouble(i));
+                    columnHash = (int) (bits ^ (bits >>> 32));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    columnHash = cursor.getString(i).hashCode();
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    columnHash = Arrays.hashCode(cursor.getBlob(i));
+                    break;
+                default:
+                    columnHash = 0;
+            }
+
+            hash = 31 * hash + columnHash;
+        }
+
+        return hash;
+    }
+
+    private Rows readRows(Cursor cursor) {
+        final int count = (cursor == null ? 0 : cursor.getCount());
+        final Rows rows = new Rows(new long[count], new int[count]);
+
+        if (cursor != null) {
+            final int idIndex = cursor.getColumnIndexOrThrow(idColumn);
+
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                rows.ids[i] = cursor.getLong(idIndex);
+                rows.hashes[i] = hashRow(cursor);
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * The IDs and hashes of the rows of a cursor.
+     */
+    private static class Rows {
+        private static final Rows EMPTY = new Rows(new long[0], new int[0]);
+
+        private final long[] ids;
+        private final int[] hashes;
+
+        private Rows(long[] ids, int[] hashes) {
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+    }
+
+    private static class Update {
+        private final Cursor cursor;
+        private final Rows rows;
+        private final DiffUtil.DiffResult diff;
+
+        private Update(Cursor cursor, Rows rows, DiffUtil.DiffResult diff) {
+            this.cursor = cursor;
+            this.rows = rows;
+            this.diff = diff;
+        }
+    }
+
+    private static class RowsCallback extends DiffUtil.Callback {
+        private final Rows oldRows;
+        private final Rows newRows;
+
+        private RowsCallback(Rows oldRows, Rows newRows) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldRows.ids.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newRows.ids.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition,
+                                       int newItemPosition) {
+            return oldRows.ids[oldItemPosition]
+                    == newRows.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition,
+                                          int newItemPosition) {
+            return oldRows.hashes[oldItemPosition]
+                    == newRows.hashes[newItemPosition];
+        }
+    }
+}
@@ -0,0 +1,8 @@
+-- Natural keys for manufacturer and device. Existing duplicates are
+-- merged into the row with the lowest _id before the indexes are created.
+UPDATE device SET manufacturer_id = (SELECT MIN(m2._id) FROM manufacturer m1 INNER JOIN manufacturer m2 ON (m1.short_name = m2.short_name) WHERE m1._id = device.manufacturer_id) WHERE manufacturer_id IN (SELECT _id FROM manufacturer WHERE short_name IS NOT NULL);
+DELETE FROM manufacturer WHERE short_name IS NOT NULL AND _id NOT IN (SELECT MIN(_id) FROM manufacturer WHERE short_name IS NOT NULL GROUP BY short_name);
+DELETE FROM device WHERE manufacturer_id IS NOT NULL AND _id NOT IN (SELECT MIN(_id) FROM device WHERE manufacturer_id IS NOT NULL GROUP BY manufacturer_id, model);
+
+CREATE UNIQUE INDEX idx_manufacturer_short_name ON manufacturer(short_name);
+CREATE UNIQUE INDEX idx_device_manufacturer_id_model ON device(manufacturer_id, model);
@@ -0,0 +1,22 @@
+-- Full text index over the device and manufacturer names. The docid of
+-- each row is the _id of the device that it describes.
+CREATE VIRTUAL TABLE device_fts USING fts4(model, nickname, short_name, long_name);
+INSERT INTO device_fts (docid, model, nickname, short_name, long_name) SELECT device._id, device.model, device.nickname, manufacturer.short_name, manufacturer.long_name FROM device LEFT OUTER JOIN manufacturer ON (device.manufacturer_id = manufacturer._id);
+
+-- Keep the index in sync with device and manufacturer
+CREATE TRIGGER device_fts_insert AFTER INSERT ON device
+BEGIN
+    INSERT INTO device_fts (docid, model, nickname, short_name, long_name) VALUES (new._id, new.model, new.nickname, (SELECT short_name FROM manufacturer WHERE _id = new.manufacturer_id), (SELECT long_name FROM manufacturer WHERE _id = new.manufacturer_id));
+END;
+CREATE TRIGGER device_fts_update AFTER UPDATE OF model, nickname, manufacturer_id ON device
+BEGIN
+    UPDATE device_fts SET model = new.model, nickname = new.nickname, short_name = (SELECT short_name FROM manufacturer WHERE _id = new.manufacturer_id), long_name = (SELECT long_name FROM manufacturer WHERE _id = new.manufacturer_id) WHERE docid = new._id;
+END;
+CREATE TRIGGER device_fts_delete AFTER DELETE ON device
+BEGIN
+    DELETE FROM device_fts WHERE docid = old._id;
+END;
+CREATE TRIGGER manufacturer_fts_update AFTER UPDATE OF short_name, long_name ON manufacturer
+BEGIN
+    UPDATE device_fts SET short_name = new.short_name, long_name = new.long_name WHERE docid IN (SELECT _id FROM device WHERE manufacturer_id = new._id);
+END;
@@ -0,0 +1,28 @@
+-- Denormalized copy of device INNER JOIN manufacturer, so that the device
+-- list can be read without a join
+CREATE TABLE device_manufacturer (device_id INTEGER PRIMARY KEY,
+                                  manufacturer_id INTEGER NOT NULL,
+                                  model TEXT NOT NULL,
+                                  short_name TEXT);
+CREATE INDEX idx_device_manufacturer_list ON device_manufacturer(model, device_id, short_name, manufacturer_id);
+CREATE INDEX idx_device_manufacturer_manufacturer_id ON device_manufacturer(manufacturer_id);
+INSERT INTO device_manufacturer (device_id, manufacturer_id, model, short_name) SELECT device._id, manufacturer._id, device.model, manufacturer.short_name FROM device INNER JOIN manufacturer ON (device.manufacturer_id = manufacturer._id);
+
+-- Keep the copy in sync with device and manufacturer
+CREATE TRIGGER device_manufacturer_insert AFTER INSERT ON device
+BEGIN
+    INSERT INTO device_manufacturer (device_id, manufacturer_id, model, short_name) SELECT new._id, _id, new.model, short_name FROM manufacturer WHERE _id = new.manufacturer_id;
+END;
+CREATE TRIGGER device_manufacturer_update AFTER UPDATE OF model, manufacturer_id ON device
+BEGIN
+    DELETE FROM device_manufacturer WHERE device_id = old._id;
+    INSERT INTO device_manufacturer (device_id, manufacturer_id, model, short_name) SELECT new._id, _id, new.model, short_name FROM manufacturer WHERE _id = new.manufacturer_id;
+END;
+CREATE TRIGGER device_manufacturer_delete AFTER DELETE ON device
+BEGIN
+    DELETE FROM device_manufacturer WHERE device_id = old._id;
+END;
+CREATE TRIGGER manufacturer_device_manufacturer_update AFTER UPDATE OF short_name ON manufacturer
+BEGIN
+    UPDATE device_manufacturer SET short_name = new.short_name WHERE manufacturer_id = new._id;
+END;
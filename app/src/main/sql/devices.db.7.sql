@@ -0,0 +1,4 @@
+-- The token of the last sync that wrote each row. A streaming sync stamps
+-- every row that it writes and then deletes the rows it did not stamp.
+ALTER TABLE device ADD COLUMN sync_token INTEGER;
+ALTER TABLE manufacturer ADD COLUMN sync_token INTEGER;
@@ -0,0 +1,4 @@
+-- State that the sync adapter keeps between syncs, such as the validators
+-- of the last catalog that was downloaded
+CREATE TABLE sync_metadata (key TEXT PRIMARY KEY NOT NULL,
+                            value TEXT);
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the cursor operators of {@link ContentQueries} close every
+ * cursor that they do not emit.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ContentQueriesTest {
+    private final PublishSubject<Integer> values = PublishSubject.create();
+    private final List<PublishSubject<Cursor>> inners = new ArrayList<>();
+
+    private Observable<Cursor> switched;
+
+    @Before
+    public void setUp() {
+        switched = ContentQueries.switchMap(values,
+                new Func1<Integer, Observable<Cursor>>() {
+                    @Override
+                    public Observable<Cursor> call(Integer value) {
+                        final PublishSubject<Cursor> inner =
+                                PublishSubject.create();
+
+                        inners.add(inner);
+                        return inner;
+                    }
+                });
+    }
+
+    @Test
+    public void switchMapClosesCursorsOfEarlierValues() {
+        final TestSubscriber<Cursor> subscriber = new TestSubscriber<>();
+        final Cursor stale = newCursor();
+        final Cursor latest = newCursor();
+
+        switched.subscribe(subscriber);
+        values.onNext(1);
+        values.onNext(2);
+
+        inners.get(0).onNext(stale);
+        inners.get(1).onNext(latest);
+
+        assertTrue(stale.isClosed());
+        assertFalse(latest.isClosed());
+        subscriber.assertValue(latest);
+    }
+
+    @Test
+    public void switchMapKeepsOnlyLatestUnrequestedCursor() {
+        final List<Cursor> received = new ArrayList<>();
+        final Subscriber<Cursor> subscriber = new Subscriber<Cursor>() {
+            @Override
+            public void onStart() {
+                request(0);
+            }
+
+            @Override
+            public void onCompleted() {
+                // no-op
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                throw new AssertionError(e);
+            }
+
+            @Override
+            public void onNext(Cursor cursor) {
+                received.add(cursor);
+            }
+        };
+
+        final Cursor first = newCursor();
+        final Cursor second = newCursor();
+
+        switched.subscribe(subscriber);
+        values.onNext(1);
+
+        inners.get(0).onNext(first);
+        inners.get(0).onNext(second);
+
+        assertTrue(first.isClosed());
+        assertTrue(received.isEmpty());
+
+        subscriber.unsubscribe();
+
+        assertTrue(second.isClosed());
+    }
+
+    @Test
+    public void switchMapEmitsPendingCursorWhenRequested() {
+        final TestSubscriber<Cursor> subscriber = new TestSubscriber<Cursor>() {
+            @Override
+            public void onStart() {
+                request(0);
+            }
+        };
+
+        final Cursor cursor = newCursor();
+
+        switched.subscribe(subscriber);
+        values.onNext(1);
+        inners.get(0).onNext(cursor);
+        inners.get(0).onCompleted();
+        values.onCompleted();
+
+        subscriber.assertNoValues();
+        subscriber.assertNotCompleted();
+
+        subscriber.requestMore(1);
+
+        subscriber.assertValue(cursor);
+        subscriber.assertCompleted();
+        assertFalse(cursor.isClosed());
+    }
+
+    @Test
+    public void observeOnClosesCursorsThatDoNotArrive() {
+        final TestScheduler scheduler = new TestScheduler();
+        final PublishSubject<Cursor> cursors = PublishSubject.create();
+        final TestSubscriber<Cursor> subscriber = new TestSubscriber<>();
+        final Cursor delivered = newCursor();
+        final Cursor dropped = newCursor();
+
+        final Subscription subscription = cursors
+                .compose(ContentQueries.observeOn(scheduler))
+                .subscribe(subscriber);
+
+        cursors.onNext(delivered);
+        scheduler.triggerActions();
+
+        cursors.onNext(dropped);
+        subscription.unsubscribe();
+        scheduler.triggerActions();
+
+        subscriber.assertValue(delivered);
+        assertFalse(delivered.isClosed());
+        assertTrue(dropped.isClosed());
+        assertEquals(1, subscriber.getOnNextEvents().size());
+    }
+
+    private static Cursor newCursor() {
+        return new MatrixCursor(new String[] {"_id"});
+    }
+}
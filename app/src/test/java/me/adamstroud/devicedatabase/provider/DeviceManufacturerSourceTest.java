@@ -0,0 +1,332 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests that the denormalized device_manufacturer table, the
+ * device/manufacturer join and the device-only query all return the same
+ * {@link DevicesContract.DeviceManufacturer} rows.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DeviceManufacturerSourceTest {
+    private static final int[] SOURCES = {
+            DevicesProvider.DEVICE_MANUFACTURER_DENORMALIZED,
+            DevicesProvider.DEVICE_MANUFACTURER_JOIN,
+            DevicesProvider.DEVICE_MANUFACTURER_NORMALIZED
+    };
+
+    private static final String[] ALL_COLUMNS = {
+            DevicesContract.DeviceManufacturer.DEVICE_ID,
+            DevicesContract.DeviceManufacturer.MODEL,
+            DevicesContract.DeviceManufacturer.SHORT_NAME,
+            DevicesContract.DeviceManufacturer.MANUFACTURER_ID
+    };
+
+    private static final String[] DEVICE_COLUMNS = {
+            DevicesContract.DeviceManufacturer.DEVICE_ID,
+            DevicesContract.DeviceManufacturer.MODEL,
+            DevicesContract.DeviceManufacturer.MANUFACTURER_ID
+    };
+
+    private DevicesProvider provider;
+    private long samsungId;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("device-manufacturer-source.db");
+
+        final long lgId = insertManufacturer("LG");
+        final long motorolaId = insertManufacturer("Motorola");
+
+        samsungId = insertManufacturer("Samsung");
+        insertManufacturer("Sony");
+
+        insertDevice(lgId, "Nexus 4");
+        insertDevice(lgId, "Nexus 5");
+        insertDevice(lgId, "G3");
+        insertDevice(motorolaId, "Nexus 6");
+        insertDevice(motorolaId, "Moto X");
+        insertDevice(samsungId, "Galaxy Nexus");
+        insertDevice(samsungId, "Nexus S");
+
+        // The same model from two manufacturers, ordered by device ID
+        insertDevice(lgId, "Prototype");
+        insertDevice(samsungId, "Prototype");
+
+        // Not in any of the sources
+        insertDevice(null, "Unbranded");
+
+        // Exercises the triggers that keep device_manufacturer in step
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, "Moto");
+        provider.update(ContentUris.withAppendedId(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                motorolaId),
+                values,
+                null,
+                null);
+
+        values.clear();
+        values.put(DevicesContract.Device.MANUFACTURER_ID, samsungId);
+        provider.update(DevicesContract.Device.CONTENT_URI,
+                values,
+                DevicesContract.Device.MODEL + " = ?",
+                new String[] {"G3"});
+
+        provider.delete(DevicesContract.Device.CONTENT_URI,
+                DevicesContract.Device.MODEL + " = ?",
+                new String[] {"Nexus 5"});
+    }
+
+    @Test
+    public void allColumnsInDefaultOrder() {
+        assertSameRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                ALL_COLUMNS,
+                null,
+                null,
+                null);
+    }
+
+    @Test
+    public void deviceColumnsInDefaultOrder() {
+        assertSameRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                DEVICE_COLUMNS,
+                null,
+                null,
+                null);
+    }
+
+    @Test
+    public void deviceColumnsSelectedAndSorted() {
+        assertSameRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                DEVICE_COLUMNS,
+                DevicesContract.DeviceManufacturer.MODEL + " LIKE ?",
+                new String[] {"%Nexus%"},
+                DevicesContract.DeviceManufacturer.MODEL + " DESC, "
+                        + DevicesContract.DeviceManufacturer.DEVICE_ID);
+    }
+
+    @Test
+    public void selectedByManufacturerId() {
+        assertSameRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                DEVICE_COLUMNS,
+                DevicesContract.DeviceManufacturer.MANUFACTURER_ID + " = ?",
+                new String[] {Long.toString(samsungId)},
+                null);
+    }
+
+    @Test
+    public void selectedAndSortedByShortName() {
+        assertSameRows(DevicesContract.DeviceManufacturer.CONTENT_URI,
+                ALL_COLUMNS,
+                DevicesContract.DeviceManufacturer.SHORT_NAME + " <> ?",
+                new String[] {"LG"},
+                DevicesContract.DeviceManufacturer.SHORT_NAME + ", "
+                        + DevicesContract.DeviceManufacturer.DEVICE_ID
+                        + " DESC");
+    }
+
+    @Test
+    public void pages() {
+        for (int pageSize = 1; pageSize <= 4; pageSize++) {
+            for (String[] projection : new String[][] {ALL_COLUMNS, DEVICE_COLUMNS}) {
+                final List<List<String>> expected = readPages(SOURCES[0],
+                        projection,
+                        pageSize);
+
+                for (int i = 1; i < SOURCES.length; i++) {
+                    assertEquals(expected, readPages(SOURCES[i],
+                            projection,
+                            pageSize));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageRejectsSortOrder() {
+        provider.query(DevicesContract.buildDeviceManufacturerPageUri(null,
+                0,
+                4),
+                DEVICE_COLUMNS,
+                null,
+                null,
+                DevicesContract.DeviceManufacturer.MODEL + " DESC");
+    }
+
+    private void assertSameRows(Uri uri,
+                                String[] projection,
+                                String selection,
+                                String[] selectionArgs,
+                                String sortOrder) {
+        final List<List<String>> expected = readRows(SOURCES[0],
+                uri,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder);
+
+        assertFalse(expected.isEmpty());
+
+        for (int i = 1; i < SOURCES.length; i++) {
+            assertEquals("Source " + SOURCES[i],
+                    expected,
+                    readRows(SOURCES[i],
+                            uri,
+                            projection,
+                            selection,
+                            selectionArgs,
+                            sortOrder));
+        }
+    }
+
+    /**
+     * Reads every page, keyed by the model and device ID of the last row
+     * of the previous page, as the paging adapter does.
+     */
+    private List<List<String>> readPages(int source,
+                                         String[] projection,
+                                         int pageSize) {
+        final int modelIndex = indexOf(projection,
+                DevicesContract.DeviceManufacturer.MODEL);
+
+        final int deviceIdIndex = indexOf(projection,
+                DevicesContract.DeviceManufacturer.DEVICE_ID);
+
+        final List<List<String>> rows = new ArrayList<>();
+        List<List<String>> page;
+        String afterModel = null;
+        long afterDeviceId = 0;
+
+        do {
+            page = readRows(source,
+                    DevicesContract.buildDeviceManufacturerPageUri(afterModel,
+                            afterDeviceId,
+                            pageSize),
+                    projection,
+                    null,
+                    null,
+                    null);
+
+            if (!page.isEmpty()) {
+                final List<String> lastRow = page.get(page.size() - 1);
+
+                afterModel = lastRow.get(modelIndex);
+                afterDeviceId = Long.parseLong(lastRow.get(deviceIdIndex));
+            }
+
+            rows.addAll(page);
+        } while (page.size() == pageSize);
+
+        assertEquals(8, rows.size());
+        return rows;
+    }
+
+    private List<List<String>> readRows(int source,
+                                        Uri uri,
+                                        String[] projection,
+                                        String selection,
+                                        String[] selectionArgs,
+                                        String sortOrder) {
+        provider.setDeviceManufacturerSource(source);
+
+        final Cursor cursor = provider.query(uri,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder);
+
+        assertNotNull(cursor);
+
+        final List<List<String>> rows = new ArrayList<>();
+
+        try {
+            assertEquals(projection.length, cursor.getColumnCount());
+
+            while (cursor.moveToNext()) {
+                final List<String> row = new ArrayList<>();
+
+                for (int i = 0; i < projection.length; i++) {
+                    assertEquals(projection[i], cursor.getColumnName(i));
+                    row.add(cursor.getString(i));
+                }
+
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return rows;
+    }
+
+    private static int indexOf(String[] projection, String column) {
+        for (int i = 0; i < projection.length; i++) {
+            if (projection[i].equals(column)) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException(column);
+    }
+
+    private long insertManufacturer(String shortName) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+
+        return ContentUris.parseId(provider.insert(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                values));
+    }
+
+    private void insertDevice(Long manufacturerId, String model) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MANUFACTURER_ID, manufacturerId);
+        values.put(DevicesContract.Device.MODEL, model);
+
+        assertNotNull(provider.insert(DevicesContract.Device.CONTENT_URI,
+                values));
+    }
+}
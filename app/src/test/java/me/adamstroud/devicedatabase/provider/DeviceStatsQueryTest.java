@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests the {@link DevicesContract.DeviceStats} Uris.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DeviceStatsQueryTest {
+    private static final double DELTA = 0.0001;
+
+    private static final String[] PROJECTION = {
+            DevicesContract.DeviceStats.SHORT_NAME,
+            DevicesContract.DeviceStats.DEVICE_COUNT,
+            DevicesContract.DeviceStats.PERCENTILE_MEMORY_MB
+    };
+
+    private DevicesProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("device-stats.db");
+
+        final long htcId = insertManufacturer("HTC");
+        final long lgId = insertManufacturer("LG");
+
+        insertManufacturer("Samsung");
+
+        insertDevice(htcId, "One", 4.0);
+        insertDevice(htcId, "One M7", 3.0);
+        insertDevice(htcId, "One M8", 1.0);
+        insertDevice(htcId, "One M9", 2.0);
+        insertDevice(lgId, "G2", 10.0);
+        insertDevice(lgId, "G3", null);
+    }
+
+    @Test
+    public void nearestRankPercentileOfAllDevices() {
+        // Ranks 1, 3 and 5 of 1, 2, 3, 4 and 10
+        assertEquals(1.0, readPercentile(0), DELTA);
+        assertEquals(3.0, readPercentile(50), DELTA);
+        assertEquals(10.0, readPercentile(100), DELTA);
+    }
+
+    @Test
+    public void nearestRankPercentileByManufacturer() {
+        final Cursor cursor = provider.query(DevicesContract.buildDeviceStatsUri(DevicesContract
+                                .DeviceStats
+                                .BY_MANUFACTURER_URI,
+                        75),
+                PROJECTION,
+                null,
+                null,
+                null);
+
+        assertNotNull(cursor);
+
+        try {
+            // Sorted by short name, without the manufacturer ID that the
+            // percentiles are looked up by
+            assertEquals(PROJECTION.length, cursor.getColumnCount());
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("HTC", cursor.getString(0));
+            assertEquals(4, cursor.getInt(1));
+            assertEquals(3.0, cursor.getDouble(2), DELTA);
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("LG", cursor.getString(0));
+            assertEquals(2, cursor.getInt(1));
+            assertEquals(10.0, cursor.getDouble(2), DELTA);
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("Samsung", cursor.getString(0));
+            assertEquals(0, cursor.getInt(1));
+            assertTrue(cursor.isNull(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSortingByPercentile() {
+        provider.query(DevicesContract.DeviceStats.BY_MANUFACTURER_URI,
+                PROJECTION,
+                null,
+                null,
+                DevicesContract.DeviceStats.PERCENTILE_MEMORY_MB + " DESC");
+    }
+
+    @Test
+    public void writesNotifyAndRefreshStats() {
+        // Rank 3 of 1, 2, 3, 4 and 10
+        assertEquals(3.0, readPercentile(60), DELTA);
+
+        insertDevice(insertManufacturer("Motorola"), "Moto X", 20.0);
+
+        boolean notified = false;
+
+        for (ShadowContentResolver.NotifiedUri notifiedUri
+                : shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .getNotifiedUris()) {
+            notified |= notifiedUri.uri.equals(DevicesContract
+                    .DeviceStats
+                    .CONTENT_URI);
+        }
+
+        assertTrue(notified);
+
+        // Rank 4 of 1, 2, 3, 4, 10 and 20
+        assertEquals(4.0, readPercentile(60), DELTA);
+    }
+
+    private double readPercentile(int percentile) {
+        final Uri uri = DevicesContract.buildDeviceStatsUri(DevicesContract
+                        .DeviceStats
+                        .CONTENT_URI,
+                percentile);
+
+        final Cursor cursor = provider.query(uri,
+                new String[] {DevicesContract.DeviceStats.PERCENTILE_MEMORY_MB},
+                null,
+                null,
+                null);
+
+        assertNotNull(cursor);
+
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertManufacturer(String shortName) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+
+        return ContentUris.parseId(provider.insert(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                values));
+    }
+
+    private void insertDevice(long manufacturerId,
+                              String model,
+                              Double memoryMb) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MANUFACTURER_ID, manufacturerId);
+        values.put(DevicesContract.Device.MODEL, model);
+        values.put(DevicesContract.Device.MEMORY_MB, memoryMb);
+
+        assertNotNull(provider.insert(DevicesContract.Device.CONTENT_URI,
+                values));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that upgrading from every schema version ends with the same
+ * schema as a new database, and keeps the existing rows.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DevicesOpenHelperTest {
+    /**
+     * The first version that has the device and manufacturer tables but
+     * not the natural key indexes, so it can hold duplicates.
+     */
+    private static final int VERSION_BEFORE_NATURAL_KEYS = 3;
+
+    @Test
+    public void upgradeFromEveryVersionMatchesNewSchema() {
+        final Map<String, String> newSchema =
+                readSchema(open("new.db").getReadableDatabase());
+
+        for (int version = 1; version < Migrations.LATEST_VERSION; version++) {
+            final String name = "version-" + version + ".db";
+
+            createAtVersion(name, version).close();
+
+            final SQLiteDatabase db = open(name).getReadableDatabase();
+
+            assertEquals("Version after upgrading from " + version,
+                    Migrations.LATEST_VERSION,
+                    db.getVersion());
+
+            assertEquals("Schema after upgrading from " + version,
+                    newSchema,
+                    readSchema(db));
+        }
+    }
+
+    @Test
+    public void upgradeKeepsAndIndexesRows() {
+        final SQLiteDatabase oldDb = createAtVersion("rows.db",
+                VERSION_BEFORE_NATURAL_KEYS);
+
+        oldDb.execSQL("INSERT INTO manufacturer (_id, short_name, long_name) "
+                + "VALUES (1, 'HTC', 'HTC Corporation')");
+
+        oldDb.execSQL("INSERT INTO manufacturer (_id, short_name, long_name) "
+                + "VALUES (2, 'HTC', 'HTC Corporation')");
+
+        oldDb.execSQL("INSERT INTO manufacturer (_id, short_name, long_name) "
+                + "VALUES (3, 'Samsung', 'Samsung Electronics')");
+
+        oldDb.execSQL("INSERT INTO device (_id, model, nickname, manufacturer_id) "
+                + "VALUES (1, 'Nexus One', 'Passion', 1)");
+
+        oldDb.execSQL("INSERT INTO device (_id, model, nickname, manufacturer_id) "
+                + "VALUES (2, 'Nexus One', 'Passion', 2)");
+
+        oldDb.execSQL("INSERT INTO device (_id, model, nickname, manufacturer_id) "
+                + "VALUES (3, 'Nexus S', 'Crespo', 3)");
+        oldDb.close();
+
+        final SQLiteDatabase db = open("rows.db").getReadableDatabase();
+
+        // Version 4 merges the duplicate manufacturer and device
+        assertEquals(2, DatabaseUtils.queryNumEntries(db,
+                DevicesOpenHelper.Tables.MANUFACTURER));
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(db,
+                DevicesOpenHelper.Tables.DEVICE));
+
+        // Version 5 indexes the existing rows for search
+        assertEquals(3, DatabaseUtils.longForQuery(db,
+                "SELECT docid FROM device_fts WHERE device_fts MATCH ?",
+                new String[] {"crespo"}));
+
+        // Version 6 copies the existing rows into device_manufacturer
+        assertEquals("HTC", DatabaseUtils.stringForQuery(db,
+                "SELECT short_name FROM device_manufacturer "
+                        + "WHERE device_id = 1",
+                null));
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(db,
+                DevicesOpenHelper.Tables.DEVICE_MANUFACTURER));
+    }
+
+    private static DevicesOpenHelper open(String name) {
+        return new DevicesOpenHelper(RuntimeEnvironment.application, name);
+    }
+
+    /**
+     * Creates a database the way that the given version of the app did.
+     */
+    private static SQLiteDatabase createAtVersion(String name, int version) {
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                RuntimeEnvironment.application.getDatabasePath(name),
+                null);
+
+        for (int i = 1; i <= version; i++) {
+            for (String statement : Migrations.forVersion(i)) {
+                db.execSQL(statement);
+            }
+        }
+
+        db.setVersion(version);
+        return db;
+    }
+
+    /**
+     * @return The SQL of each table, index, trigger and view, keyed by
+     *         type and name.
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        final Map<String, String> schema = new TreeMap<>();
+        final Cursor cursor = db.rawQuery("SELECT type, name, sql "
+                + "FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' "
+                + "AND name <> 'android_metadata'",
+                null);
+
+        try {
+            while (cursor.moveToNext()) {
+                schema.put(cursor.getString(0) + " " + cursor.getString(1),
+                        cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return schema;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the compiled statement path of
+ * {@link DevicesProvider#bulkInsert(Uri, ContentValues[])}.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DevicesProviderBulkInsertTest {
+    private DevicesProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("bulk-insert.db");
+    }
+
+    @Test
+    public void returnsInsertedRowCount() {
+        assertEquals(3, provider.bulkInsert(DevicesContract.Manufacturer.CONTENT_URI,
+                new ContentValues[] {
+                        manufacturer("HTC", "HTC Corporation"),
+                        manufacturer("Samsung", "Samsung Electronics"),
+                        manufacturer("LG", "LG Electronics")
+                }));
+    }
+
+    @Test
+    public void ignoredRowsAreNotCounted() {
+        final Uri uri = DevicesContract.withOnConflict(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                DevicesContract.ON_CONFLICT_IGNORE);
+
+        provider.bulkInsert(uri, new ContentValues[] {
+                manufacturer("HTC", "HTC Corporation")
+        });
+
+        assertEquals(1, provider.bulkInsert(uri, new ContentValues[] {
+                manufacturer("HTC", "HTC"),
+                manufacturer("Samsung", "Samsung Electronics")
+        }));
+
+        assertEquals("HTC Corporation", readLongName("HTC"));
+    }
+
+    @Test
+    public void updatedRowsAreCounted() {
+        final Uri uri = DevicesContract.withOnConflict(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                DevicesContract.ON_CONFLICT_UPDATE);
+
+        provider.bulkInsert(uri, new ContentValues[] {
+                manufacturer("HTC", "HTC"),
+                manufacturer("LG", "LG")
+        });
+
+        assertEquals(2, provider.bulkInsert(uri, new ContentValues[] {
+                manufacturer("HTC", "HTC Corporation"),
+                manufacturer("Samsung", "Samsung Electronics")
+        }));
+
+        assertEquals("HTC Corporation", readLongName("HTC"));
+        assertEquals("LG", readLongName("LG"));
+    }
+
+    @Test
+    public void rowsWithDifferentColumnsKeepTheirValues() {
+        final ContentValues shortNameOnly = new ContentValues();
+
+        shortNameOnly.put(DevicesContract.Manufacturer.SHORT_NAME, "LG");
+
+        assertEquals(2, provider.bulkInsert(DevicesContract.Manufacturer.CONTENT_URI,
+                new ContentValues[] {
+                        manufacturer("HTC", "HTC Corporation"),
+                        shortNameOnly
+                }));
+
+        assertEquals("HTC Corporation", readLongName("HTC"));
+        assertEquals(null, readLongName("LG"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownColumns() {
+        final ContentValues values = manufacturer("HTC", "HTC Corporation");
+
+        values.put("country", "Taiwan");
+
+        provider.bulkInsert(DevicesContract.Manufacturer.CONTENT_URI,
+                new ContentValues[] {values});
+    }
+
+    private String readLongName(String shortName) {
+        final Cursor cursor = provider.query(DevicesContract.Manufacturer.CONTENT_URI,
+                new String[] {DevicesContract.Manufacturer.LONG_NAME},
+                DevicesContract.Manufacturer.SHORT_NAME + " = ?",
+                new String[] {shortName},
+                null);
+
+        assertNotNull(cursor);
+
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues manufacturer(String shortName,
+                                              String longName) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+        values.put(DevicesContract.Manufacturer.LONG_NAME, longName);
+        return values;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the by-ID Uris, which are served from the row cache.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DevicesProviderByIdTest {
+    private DevicesProvider provider;
+    private Uri deviceUri;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("by-id.db");
+
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MODEL, "Nexus 5");
+        values.put(DevicesContract.Device.NICKNAME, "Hammerhead");
+
+        deviceUri = provider.insert(DevicesContract.Device.CONTENT_URI, values);
+        assertNotNull(deviceUri);
+    }
+
+    @Test
+    public void nullProjectionReturnsEveryColumn() {
+        // The first query reads the row, the second is served from the cache
+        for (int i = 0; i < 2; i++) {
+            final Cursor cursor = provider.query(deviceUri,
+                    null,
+                    null,
+                    null,
+                    null);
+
+            assertNotNull(cursor);
+
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(ContentUris.parseId(deviceUri),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(DevicesContract
+                                .Device
+                                ._ID)));
+
+                assertEquals("Nexus 5",
+                        cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract
+                                .Device
+                                .MODEL)));
+
+                assertEquals("Hammerhead",
+                        cursor.getString(cursor.getColumnIndexOrThrow(DevicesContract
+                                .Device
+                                .NICKNAME)));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void nullProjectionForMissingRowReturnsNoRows() {
+        final Cursor cursor = provider.query(ContentUris
+                        .withAppendedId(DevicesContract.Device.CONTENT_URI,
+                                ContentUris.parseId(deviceUri) + 1),
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull(cursor);
+
+        try {
+            assertFalse(cursor.moveToFirst());
+            assertTrue(cursor.getColumnIndex(DevicesContract.Device.MODEL) != -1);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests the ranking of {@link DevicesContract.DeviceSearch} results.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DevicesProviderSearchTest {
+    private DevicesProvider provider;
+    private long manufacturerId;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("search.db");
+
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, "Samsung");
+        manufacturerId = ContentUris.parseId(provider.insert(DevicesContract
+                        .Manufacturer
+                        .CONTENT_URI,
+                values));
+    }
+
+    @Test
+    public void ranksByNumberOfMatches() {
+        insertDevice("Nexus S", null);
+        insertDevice("Galaxy Nexus", "Nexus Maguro");
+        insertDevice("Galaxy Note", null);
+
+        assertEquals(Arrays.asList("Galaxy Nexus", "Nexus S"),
+                search("nexus"));
+    }
+
+    @Test
+    public void ranksEqualMatchesByModel() {
+        // One match each, but the match in "Zzzzzzzzz Nexus" has a two
+        // digit byte offset, so its offsets() value is longer
+        insertDevice("Zzzzzzzzz Nexus", null);
+        insertDevice("Nexus S", null);
+
+        assertEquals(Arrays.asList("Nexus S", "Zzzzzzzzz Nexus"),
+                search("nexus"));
+    }
+
+    @Test
+    public void emptyQueryMatchesNothing() {
+        insertDevice("Nexus S", null);
+
+        assertEquals(0, search(" ").size());
+    }
+
+    private List<String> search(String query) {
+        final Cursor cursor = provider.query(DevicesContract.buildDeviceSearchUri(query, 10),
+                new String[] {
+                        DevicesContract.DeviceSearch.DEVICE_ID,
+                        DevicesContract.DeviceSearch.MODEL
+                },
+                null,
+                null,
+                null);
+
+        assertNotNull(cursor);
+
+        final List<String> models = new ArrayList<>();
+
+        try {
+            while (cursor.moveToNext()) {
+                models.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return models;
+    }
+
+    private void insertDevice(String model, String nickname) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MODEL, model);
+        values.put(DevicesContract.Device.NICKNAME, nickname);
+        values.put(DevicesContract.Device.MANUFACTURER_ID, manufacturerId);
+
+        assertNotNull(provider.insert(DevicesContract.Device.CONTENT_URI,
+                values));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the operation statistics that {@link DevicesProvider} exposes
+ * through call() and dump().
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DevicesProviderStatsTest {
+    private DevicesProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = TestProviders.create("stats.db");
+    }
+
+    @Test
+    public void countsCallsAndRowsByUri() {
+        final long manufacturerId = insertManufacturer("HTC");
+
+        insertDevice("Nexus One", manufacturerId);
+        insertDevice("One M8", manufacturerId);
+
+        final Cursor cursor = provider.query(DevicesContract.Device.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull(cursor);
+        cursor.close();
+
+        final Bundle operations = readOperations();
+
+        assertEntry(operations, "insert manufacturer", 1, 1);
+        assertEntry(operations, "insert device", 2, 2);
+        assertEntry(operations, "query device", 1, 2);
+        assertNull(operations.getBundle("query manufacturer"));
+    }
+
+    @Test
+    public void histogramHoldsEveryCall() {
+        final long manufacturerId = insertManufacturer("Samsung");
+
+        for (int i = 0; i < 10; i++) {
+            insertDevice("Galaxy S" + i, manufacturerId);
+        }
+
+        final Bundle stats = provider.call(DevicesContract.Stats.METHOD,
+                null,
+                null);
+
+        assertNotNull(stats);
+
+        final Bundle entry = stats.getBundle(DevicesContract.Stats.OPERATIONS)
+                .getBundle("insert device");
+
+        final long[] histogram =
+                entry.getLongArray(DevicesContract.Stats.LATENCY_HISTOGRAM);
+
+        final long[] bounds = stats.getLongArray(DevicesContract
+                .Stats
+                .LATENCY_BUCKET_BOUNDS_MICROS);
+
+        long histogramCalls = 0;
+
+        for (long bucketCalls : histogram) {
+            histogramCalls += bucketCalls;
+        }
+
+        assertEquals(bounds.length + 1, histogram.length);
+        assertEquals(10, histogramCalls);
+        assertTrue(entry.getLong(DevicesContract.Stats.MAX_MICROS)
+                <= entry.getLong(DevicesContract.Stats.TOTAL_MICROS));
+    }
+
+    @Test
+    public void dumpListsOperations() {
+        insertManufacturer("LG");
+
+        final StringWriter output = new StringWriter();
+
+        provider.dump(null, new PrintWriter(output), new String[0]);
+        assertTrue(output.toString().contains("insert manufacturer: calls=1"));
+    }
+
+    private long insertManufacturer(String shortName) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Manufacturer.SHORT_NAME, shortName);
+        values.put(DevicesContract.Manufacturer.LONG_NAME, shortName);
+
+        final Uri uri = provider.insert(DevicesContract.Manufacturer.CONTENT_URI,
+                values);
+
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertDevice(String model, long manufacturerId) {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MODEL, model);
+        values.put(DevicesContract.Device.MANUFACTURER_ID, manufacturerId);
+
+        assertNotNull(provider.insert(DevicesContract.Device.CONTENT_URI,
+                values));
+    }
+
+    private Bundle readOperations() {
+        final Bundle stats = provider.call(DevicesContract.Stats.METHOD,
+                null,
+                null);
+
+        assertNotNull(stats);
+        return stats.getBundle(DevicesContract.Stats.OPERATIONS);
+    }
+
+    private static void assertEntry(Bundle operations,
+                                    String key,
+                                    long calls,
+                                    long rows) {
+        final Bundle entry = operations.getBundle(key);
+
+        assertNotNull(key, entry);
+        assertEquals(key + " calls",
+                calls,
+                entry.getLong(DevicesContract.Stats.CALLS));
+
+        assertEquals(key + " rows",
+                rows,
+                entry.getLong(DevicesContract.Stats.ROWS));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.provider;
+
+import android.content.pm.ProviderInfo;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+/**
+ * Creates {@link DevicesProvider} instances for JVM tests.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public final class TestProviders {
+    private TestProviders() {
+        // no-op
+    }
+
+    /**
+     * Creates a provider over its own database and registers it with the
+     * test ContentResolver under {@link DevicesContract#AUTHORITY}.
+     *
+     * @param databaseName The file name of the provider's database.
+     */
+    public static DevicesProvider create(String databaseName) {
+        final DevicesProvider provider = new DevicesProvider(
+                new DevicesOpenHelper(RuntimeEnvironment.application,
+                        databaseName));
+
+        final ProviderInfo info = new ProviderInfo();
+        info.authority = DevicesContract.AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+
+        ShadowContentResolver.registerProvider(DevicesContract.AUTHORITY,
+                provider);
+
+        return provider;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncStats;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+import me.adamstroud.devicedatabase.provider.DevicesProvider;
+import me.adamstroud.devicedatabase.provider.TestProviders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that {@link CatalogStream} writes a catalog of a million devices
+ * without its heap use growing with the size of the catalog, and that it
+ * writes manufacturers in batches.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CatalogStreamTest {
+    private static final int MANUFACTURER_COUNT = 1000;
+    private static final int DEVICES_PER_MANUFACTURER = 1000;
+    private static final long SYNC_TOKEN = 42;
+
+    /**
+     * Far less than the million parsed devices or their ContentValues
+     * would take up, but enough to absorb the noise of the collector.
+     */
+    private static final long MAX_HEAP_GROWTH_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The heap is sampled after every this many bulk inserts, as each
+     * sample forces a collection.
+     */
+    private static final int BULK_INSERTS_PER_SAMPLE = 100;
+
+    /**
+     * Each batch of manufacturers, each bulk insert of devices and each of
+     * the two deletes notify a table and the three Uris derived from it.
+     */
+    private static final int NOTIFICATIONS_PER_WRITE = 4;
+
+    private ContentProviderClient provider;
+    private Gson gson;
+    private long baselineHeapBytes;
+    private long maxHeapBytes;
+    private int bulkInsertCount;
+    private long deviceCount;
+    private long manufacturerCount;
+
+    @Before
+    public void setUp() throws Exception {
+        gson = new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy
+                        .LOWER_CASE_WITH_UNDERSCORES)
+                .create();
+
+        provider = mock(ContentProviderClient.class);
+
+        when(provider.applyBatch(any(ArrayList.class)))
+                .thenAnswer(new Answer<ContentProviderResult[]>() {
+                    @Override
+                    public ContentProviderResult[] answer(InvocationOnMock invocation) {
+                        final List<?> operations =
+                                (List<?>) invocation.getArguments()[0];
+
+                        final ContentProviderResult[] results =
+                                new ContentProviderResult[operations.size()];
+
+                        for (int i = 0; i < results.length; i++) {
+                            results[i] = new ContentProviderResult(ContentUris
+                                    .withAppendedId(DevicesContract
+                                                    .Manufacturer
+                                                    .CONTENT_URI,
+                                            ++manufacturerCount));
+                        }
+
+                        return results;
+                    }
+                });
+
+        when(provider.bulkInsert(any(Uri.class), any(ContentValues[].class)))
+                .thenAnswer(new Answer<Integer>() {
+                    @Override
+                    public Integer answer(InvocationOnMock invocation) {
+                        final ContentValues[] values =
+                                (ContentValues[]) invocation.getArguments()[1];
+
+                        deviceCount += values.length;
+
+                        if (++bulkInsertCount % BULK_INSERTS_PER_SAMPLE == 0) {
+                            maxHeapBytes = Math.max(maxHeapBytes, usedHeapBytes());
+                        }
+
+                        return values.length;
+                    }
+                });
+    }
+
+    @Test
+    public void millionDevicesInBoundedHeap() throws Exception {
+        final SyncStats stats = new SyncStats();
+        final CatalogStream catalogStream =
+                new CatalogStream(provider, gson, stats, SYNC_TOKEN);
+
+        baselineHeapBytes = usedHeapBytes();
+        maxHeapBytes = baselineHeapBytes;
+
+        catalogStream.sync(new CatalogReader());
+
+        final long growthBytes = maxHeapBytes - baselineHeapBytes;
+
+        assertEquals(MANUFACTURER_COUNT, manufacturerCount);
+        assertEquals((long) MANUFACTURER_COUNT * DEVICES_PER_MANUFACTURER,
+                deviceCount);
+
+        assertEquals(manufacturerCount + deviceCount, stats.numEntries);
+        assertEquals("watermark", catalogStream.getWatermark());
+
+        assertTrue("Heap grew by " + growthBytes + " bytes",
+                growthBytes < MAX_HEAP_GROWTH_BYTES);
+
+        verify(provider).delete(eq(DevicesContract.Device.CONTENT_URI),
+                eq(CatalogOperations.STALE_SELECTION),
+                eq(new String[] {Long.toString(SYNC_TOKEN)}));
+
+        verify(provider, never()).insert(any(Uri.class),
+                any(ContentValues.class));
+    }
+
+    @Test
+    public void longNameAfterDevicesWritesManufacturerOnce() throws Exception {
+        final DevicesProvider devicesProvider =
+                TestProviders.create("catalog-stream-order.db");
+
+        final ContentProviderClient client = acquireClient();
+        final SyncStats stats = new SyncStats();
+
+        try {
+            new CatalogStream(client, gson, stats, SYNC_TOKEN)
+                    .sync(new StringReader("{\"manufacturers\":["
+                            + "{\"short_name\":\"LG\",\"devices\":["
+                            + "{\"model\":\"Nexus 4\"},"
+                            + "{\"model\":\"Nexus 5\"}],"
+                            + "\"long_name\":\"LG Electronics\"}]}"));
+
+            assertEquals(3, stats.numEntries);
+
+            final Cursor cursor = client.query(DevicesContract
+                            .Manufacturer
+                            .CONTENT_URI,
+                    new String[] {DevicesContract.Manufacturer.LONG_NAME},
+                    null,
+                    null,
+                    null);
+
+            try {
+                assertEquals(1, cursor.getCount());
+                assertTrue(cursor.moveToFirst());
+                assertEquals("LG Electronics", cursor.getString(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            ContentProviderClients.release(client);
+            devicesProvider.shutdown();
+        }
+    }
+
+    @Test
+    public void notificationsDoNotGrowWithManufacturers() throws Exception {
+        final DevicesProvider devicesProvider =
+                TestProviders.create("catalog-stream-notifications.db");
+
+        final ContentProviderClient client = acquireClient();
+        final StringBuilder catalog = new StringBuilder("{\"manufacturers\":[");
+        final int manufacturers = 100;
+
+        for (int i = 0; i < manufacturers; i++) {
+            catalog.append(i == 0 ? "" : ",")
+                    .append("{\"short_name\":\"M")
+                    .append(i)
+                    .append("\",\"devices\":[{\"model\":\"Model\"}]}");
+        }
+
+        catalog.append("]}");
+
+        try {
+            final long sentBefore = notificationsSent(client);
+            final SyncStats stats = new SyncStats();
+
+            new CatalogStream(client, gson, stats, SYNC_TOKEN)
+                    .sync(new StringReader(catalog.toString()));
+
+            assertEquals(manufacturers * 2, stats.numEntries);
+
+            // One batch of manufacturers, one bulk insert and two deletes
+            assertTrue(notificationsSent(client) - sentBefore
+                    <= 4 * NOTIFICATIONS_PER_WRITE);
+        } finally {
+            ContentProviderClients.release(client);
+            devicesProvider.shutdown();
+        }
+    }
+
+    private static ContentProviderClient acquireClient() {
+        return RuntimeEnvironment
+                .application
+                .getContentResolver()
+                .acquireContentProviderClient(DevicesContract.AUTHORITY);
+    }
+
+    private static long notificationsSent(ContentProviderClient client)
+            throws Exception {
+        final Bundle stats = client.call(DevicesContract.Stats.METHOD,
+                null,
+                null);
+
+        return stats.getLong(DevicesContract.Stats.NOTIFICATIONS_SENT);
+    }
+
+    private static long usedHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Generates the JSON of the catalog as it is read, so that the test
+     * does not hold the catalog in memory either.
+     */
+    private static class CatalogReader extends Reader {
+        private final StringBuilder buffer = new StringBuilder();
+        private int position;
+        private int manufacturer;
+        private boolean finished;
+
+        private CatalogReader() {
+            buffer.append("{\"manufacturers\":[");
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (position == buffer.length()) {
+                if (!fill()) {
+                    return -1;
+                }
+            }
+
+            final int count = Math.min(length, buffer.length() - position);
+
+            buffer.getChars(position, position + count, chars, offset);
+            position += count;
+
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // no-op
+        }
+
+        /**
+         * Replaces the buffer with the JSON of the next manufacturer.
+         *
+         * @return false at the end of the catalog.
+         */
+        private boolean fill() {
+            if (finished) {
+                return false;
+            }
+
+            buffer.setLength(0);
+            position = 0;
+
+            if (manufacturer == MANUFACTURER_COUNT) {
+                buffer.append("],\"watermark\":\"watermark\"}");
+                finished = true;
+                return true;
+            }
+
+            if (manufacturer > 0) {
+                buffer.append(',');
+            }
+
+            buffer.append("{\"short_name\":\"M")
+                    .append(manufacturer)
+                    .append("\",\"long_name\":\"Manufacturer ")
+                    .append(manufacturer)
+                    .append("\",\"devices\":[");
+
+            for (int i = 0; i < DEVICES_PER_MANUFACTURER; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+
+                buffer.append("{\"model\":\"Model ")
+                        .append(i)
+                        .append("\",\"nickname\":\"Device ")
+                        .append(i)
+                        .append("\",\"memory_mb\":")
+                        .append(512 + (i % 8) * 256)
+                        .append(",\"display_size_inches\":")
+                        .append(4.0 + (i % 30) / 10.0)
+                        .append('}');
+            }
+
+            buffer.append("]}");
+            manufacturer++;
+
+            return true;
+        }
+    }
+}
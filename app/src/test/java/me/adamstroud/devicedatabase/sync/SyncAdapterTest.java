@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.sync;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.adamstroud.devicedatabase.BuildConfig;
+import me.adamstroud.devicedatabase.api.retrofit.DeviceService;
+import me.adamstroud.devicedatabase.provider.DevicesContract;
+import me.adamstroud.devicedatabase.provider.DevicesProvider;
+import me.adamstroud.devicedatabase.provider.TestProviders;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that a full sync sends the validators of the last catalog and
+ * leaves the local catalog alone when the catalog has not changed.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SyncAdapterTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sat, 01 Oct 2016 12:00:00 GMT";
+
+    private static final String CATALOG = "{\"manufacturers\":["
+            + "{\"short_name\":\"LG\",\"long_name\":\"LG Electronics\","
+            + "\"devices\":["
+            + "{\"model\":\"Nexus 4\",\"nickname\":\"Mako\","
+            + "\"memory_mb\":2048,\"display_size_inches\":4.7},"
+            + "{\"model\":\"Nexus 5\",\"nickname\":\"Hammerhead\","
+            + "\"memory_mb\":2048,\"display_size_inches\":4.95}]}]}";
+
+    private static final String CHANGED_CATALOG = "{\"manufacturers\":["
+            + "{\"short_name\":\"LG\",\"long_name\":\"LG Electronics\","
+            + "\"devices\":["
+            + "{\"model\":\"Nexus 5\",\"nickname\":\"Hammerhead\","
+            + "\"memory_mb\":2048,\"display_size_inches\":4.95}]}]}";
+
+    private final MockWebServer server = new MockWebServer();
+
+    private DevicesProvider devicesProvider;
+    private ContentProviderClient provider;
+    private DeviceService service;
+    private Gson gson;
+
+    @Before
+    public void setUp() throws Exception {
+        server.start();
+
+        gson = new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy
+                        .LOWER_CASE_WITH_UNDERSCORES)
+                .create();
+
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addConverterFactory(GsonConverterFactory.create(gson))
+                .build()
+                .create(DeviceService.class);
+
+        devicesProvider = TestProviders.create("sync-adapter.db");
+        provider = RuntimeEnvironment
+                .application
+                .getContentResolver()
+                .acquireContentProviderClient(DevicesContract.AUTHORITY);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ContentProviderClients.release(provider);
+        devicesProvider.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void storesValidatorsAndSkipsNotModifiedCatalog() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setHeader("Last-Modified", LAST_MODIFIED)
+                .setBody(CATALOG));
+
+        sync(false);
+
+        final RecordedRequest first = server.takeRequest();
+
+        assertNull(first.getHeader("If-None-Match"));
+        assertNull(first.getHeader("If-Modified-Since"));
+        assertEquals(ETAG, new SyncState(provider).get(SyncState.KEY_CATALOG_ETAG));
+        assertEquals(LAST_MODIFIED, new SyncState(provider)
+                .get(SyncState.KEY_CATALOG_LAST_MODIFIED));
+
+        assertEquals(2, queryModels().size());
+
+        // A full sync that applied the catalog would delete this device
+        insertLocalDevice();
+
+        for (boolean stream : new boolean[] {false, true}) {
+            server.enqueue(new MockResponse()
+                    .setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED)
+                    .setHeader("ETag", ETAG));
+
+            final SyncResult syncResult = sync(stream);
+            final RecordedRequest request = server.takeRequest();
+
+            assertEquals(ETAG, request.getHeader("If-None-Match"));
+            assertEquals(LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+            assertEquals(0, syncResult.stats.numEntries);
+            assertEquals(0, syncResult.stats.numIoExceptions);
+            assertEquals(3, queryModels().size());
+        }
+    }
+
+    @Test
+    public void skipsIdenticalCatalogWithoutValidators() throws Exception {
+        server.enqueue(new MockResponse().setBody(CATALOG));
+        sync(false);
+
+        insertLocalDevice();
+
+        server.enqueue(new MockResponse().setBody(CATALOG));
+        sync(false);
+
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+
+        // The hash matched, so the catalog was not applied
+        assertEquals(3, queryModels().size());
+
+        server.enqueue(new MockResponse().setBody(CHANGED_CATALOG));
+        sync(false);
+
+        final List<String> models = queryModels();
+
+        assertEquals(1, models.size());
+        assertEquals("Nexus 5", models.get(0));
+    }
+
+    @Test
+    public void unconditionalSyncSendsNoValidators() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setBody(CATALOG));
+
+        sync(false);
+        server.takeRequest();
+
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", ETAG)
+                .setBody(CATALOG));
+
+        SyncAdapter.performFullSync(provider,
+                new SyncState(provider),
+                service,
+                gson,
+                false,
+                true,
+                false,
+                new SyncResult());
+
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertEquals(2, queryModels().size());
+    }
+
+    private SyncResult sync(boolean stream) throws Exception {
+        final SyncResult syncResult = new SyncResult();
+
+        SyncAdapter.performFullSync(provider,
+                new SyncState(provider),
+                service,
+                gson,
+                stream,
+                false,
+                true,
+                syncResult);
+
+        return syncResult;
+    }
+
+    private void insertLocalDevice() throws Exception {
+        final ContentValues values = new ContentValues();
+
+        values.put(DevicesContract.Device.MODEL, "Local");
+        provider.insert(DevicesContract.Device.CONTENT_URI, values);
+    }
+
+    private List<String> queryModels() throws Exception {
+        final Cursor cursor = provider.query(DevicesContract.Device.CONTENT_URI,
+                new String[] {DevicesContract.Device.MODEL},
+                null,
+                null,
+                DevicesContract.Device.MODEL);
+
+        final List<String> models = new ArrayList<>();
+
+        try {
+            while (cursor.moveToNext()) {
+                models.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return models;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.build;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the schema migration scripts into a Java class, so that the app
+ * runs a list of statements rather than parsing SQL at runtime.
+ *
+ * <p>The scripts are named <code>&lt;database&gt;.&lt;version&gt;.sql</code>.
+ * Statements may span lines and are split on semicolons that are outside
+ * of string literals, quoted identifiers, comments and trigger bodies.
+ * Comments are dropped and whitespace outside of literals is collapsed.</p>
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public final class MigrationGenerator {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern SCRIPT_NAME =
+            Pattern.compile(".+\\.(\\d+)\\.sql");
+
+    private MigrationGenerator() {
+        // no-op
+    }
+
+    /**
+     * Writes the generated class.
+     *
+     * @param sqlDir The directory holding the migration scripts.
+     * @param outputDir The root of the generated source directory.
+     * @param packageName The package of the generated class.
+     * @param className The name of the generated class.
+     */
+    public static void generate(File sqlDir,
+                                File outputDir,
+                                String packageName,
+                                String className) throws IOException {
+        final SortedMap<Integer, List<String>> migrations =
+                readMigrations(sqlDir);
+
+        final File packageDir =
+                new File(outputDir, packageName.replace('.', File.separatorChar));
+
+        if (!packageDir.isDirectory() && !packageDir.mkdirs()) {
+            throw new IOException("Could not create " + packageDir);
+        }
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(
+                new File(packageDir, className + ".java")), UTF_8);
+
+        try {
+            writer.write(toJava(packageName, className, migrations));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads and splits every migration script.
+     *
+     * @return The statements of each script, keyed by schema version.
+     */
+    public static SortedMap<Integer, List<String>> readMigrations(File sqlDir)
+            throws IOException {
+        final SortedMap<Integer, List<String>> migrations = new TreeMap<>();
+        final File[] scripts = sqlDir.listFiles();
+
+        if (scripts != null) {
+            for (File script : scripts) {
+                final Matcher matcher = SCRIPT_NAME.matcher(script.getName());
+
+                if (matcher.matches()) {
+                    migrations.put(Integer.valueOf(matcher.group(1)),
+                            split(read(script)));
+                }
+            }
+        }
+
+        for (int version = 1; version <= migrations.size(); version++) {
+            if (!migrations.containsKey(version)) {
+                throw new IllegalStateException("Missing migration script "
+                        + "for version " + version + " in " + sqlDir);
+            }
+        }
+
+        return migrations;
+    }
+
+    /**
+     * Splits a script into its statements.
+     */
+    public static List<String> split(String sql) {
+        final List<String> statements = new ArrayList<>();
+        final StringBuilder statement = new StringBuilder();
+        final StringBuilder word = new StringBuilder();
+
+        int wordCount = 0;
+        boolean trigger = false;
+        boolean triggerBody = false;
+        int caseDepth = 0;
+        boolean pendingSpace = false;
+
+        int i = 0;
+
+        while (i <= sql.length()) {
+            final char c = (i < sql.length() ? sql.charAt(i) : ';');
+
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                word.append(c);
+                appendPendingSpace(statement, pendingSpace);
+                pendingSpace = false;
+                statement.append(c);
+                i++;
+                continue;
+            }
+
+            if (word.length() > 0) {
+                final String keyword = word.toString().toUpperCase(Locale.US);
+                word.setLength(0);
+                wordCount++;
+
+                if (keyword.equals("TRIGGER") && wordCount <= 3) {
+                    trigger = true;
+                } else if (keyword.equals("BEGIN") && trigger) {
+                    triggerBody = true;
+                } else if (keyword.equals("CASE")) {
+                    caseDepth++;
+                } else if (keyword.equals("END")) {
+                    if (caseDepth > 0) {
+                        caseDepth--;
+                    } else {
+                        triggerBody = false;
+                    }
+                }
+            }
+
+            if (c == '-' && sql.startsWith("--", i)) {
+                final int end = sql.indexOf('\n', i);
+                i = (end == -1 ? sql.length() : end);
+                pendingSpace = true;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                final int end = sql.indexOf("*/", i + 2);
+
+                if (end == -1) {
+                    throw new IllegalArgumentException("Unterminated comment: "
+                            + sql.substring(i));
+                }
+
+                i = end + 2;
+                pendingSpace = true;
+            } else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                final char close = (c == '[' ? ']' : c);
+                int end = i + 1;
+
+                // A doubled quote inside of a literal is an escaped quote
+                while (true) {
+                    end = sql.indexOf(close, end);
+
+                    if (end == -1) {
+                        throw new IllegalArgumentException("Unterminated "
+                                + "literal: " + sql.substring(i));
+                    }
+
+                    if (close != ']'
+                            && end + 1 < sql.length()
+                            && sql.charAt(end + 1) == close) {
+                        end += 2;
+                    } else {
+                        break;
+                    }
+                }
+
+                appendPendingSpace(statement, pendingSpace);
+                pendingSpace = false;
+                statement.append(sql, i, end + 1);
+                i = end + 1;
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+            } else if (c == ';' && !triggerBody) {
+                if (statement.length() > 0) {
+                    statements.add(statement.toString());
+                }
+
+                statement.setLength(0);
+                pendingSpace = false;
+                wordCount = 0;
+                trigger = false;
+                caseDepth = 0;
+                i++;
+            } else {
+                appendPendingSpace(statement, pendingSpace);
+                pendingSpace = false;
+                statement.append(c);
+                i++;
+            }
+        }
+
+        if (triggerBody) {
+            throw new IllegalArgumentException("Unterminated trigger: "
+                    + statement);
+        }
+
+        return statements;
+    }
+
+    private static void appendPendingSpace(StringBuilder statement,
+                                           boolean pendingSpace) {
+        if (pendingSpace && statement.length() > 0) {
+            statement.append(' ');
+        }
+    }
+
+    private static String toJava(String packageName,
+                                 String className,
+                                 SortedMap<Integer, List<String>> migrations) {
+        final StringBuilder java = new StringBuilder()
+                .append("// Generated from the migration scripts. Do not edit.\n")
+                .append("package ").append(packageName).append(";\n\n")
+                .append("/* package */ final class ").append(className)
+                .append(" {\n")
+                .append("    /* package */ static final int LATEST_VERSION = ")
+                .append(migrations.isEmpty() ? 0 : migrations.lastKey())
+                .append(";\n\n")
+                .append("    private static final String[][] STATEMENTS = {\n");
+
+        for (List<String> statements : migrations.values()) {
+            java.append("            {\n");
+
+            for (String statement : statements) {
+                java.append("                    ")
+                        .append(toJavaString(statement))
+                        .append(",\n");
+            }
+
+            java.append("            },\n");
+        }
+
+        return java.append("    };\n\n")
+                .append("    private ").append(className).append("() {\n")
+                .append("        // no-op\n")
+                .append("    }\n\n")
+                .append("    /**\n")
+                .append("     * @return The statements that migrate the schema from the\n")
+                .append("     *         previous version to the given version.\n")
+                .append("     */\n")
+                .append("    /* package */ static String[] forVersion(int version) {\n")
+                .append("        if (version < 1 || version > LATEST_VERSION) {\n")
+                .append("            throw new IllegalArgumentException(\"Unknown schema version: \" + version);\n")
+                .append("        }\n\n")
+                .append("        return STATEMENTS[version - 1].clone();\n")
+                .append("    }\n")
+                .append("}\n")
+                .toString();
+    }
+
+    private static String toJavaString(String value) {
+        final StringBuilder string = new StringBuilder("\"");
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                string.append('\\').append(c);
+            } else if (c == '\n') {
+                string.append("\\n");
+            } else if (c == '\r') {
+                string.append("\\r");
+            } else if (c == '\t') {
+                string.append("\\t");
+            } else if (c < 0x20 || c > 0x7e) {
+                string.append(String.format("\\u%04x", (int) c));
+            } else {
+                string.append(c);
+            }
+        }
+
+        return string.append('"').toString();
+    }
+
+    /* package */ static String read(File file) throws IOException {
+        final StringBuilder contents = new StringBuilder();
+        final InputStream inputStream = new FileInputStream(file);
+
+        try {
+            final Reader reader = new InputStreamReader(inputStream, UTF_8);
+            final char[] buffer = new char[8192];
+
+            for (int count; (count = reader.read(buffer)) != -1;) {
+                contents.append(buffer, 0, count);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return contents.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Adam Stroud
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.adamstroud.devicedatabase.build;
+
+import org.sqlite.JDBC;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedMap;
+
+/**
+ * Builds a database file at the latest schema version that already holds
+ * the seed data, so that the app can copy it on first launch instead of
+ * running the migrations and the seed statements.
+ *
+ * @author Adam Stroud &#60;<a href="mailto:adam.stroud@gmail.com">adam.stroud@gmail.com</a>&#62;
+ */
+public final class SeedDatabaseBuilder {
+    private SeedDatabaseBuilder() {
+        // no-op
+    }
+
+    /**
+     * @param sqlDir The directory holding the migration scripts.
+     * @param seedScript The statements that insert the seed data.
+     * @param output The database file to create.
+     */
+    public static void build(File sqlDir, File seedScript, File output)
+            throws IOException, SQLException {
+        final SortedMap<Integer, List<String>> migrations =
+                MigrationGenerator.readMigrations(sqlDir);
+
+        final List<String> statements = new ArrayList<>();
+
+        for (List<String> migration : migrations.values()) {
+            statements.addAll(migration);
+        }
+
+        statements.addAll(MigrationGenerator
+                .split(MigrationGenerator.read(seedScript)));
+
+        final File parent = output.getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        if (output.exists() && !output.delete()) {
+            throw new IOException("Could not delete " + output);
+        }
+
+        // The driver is used directly, as DriverManager does not see
+        // drivers that are loaded by the build script's class loader
+        final Connection connection = new JDBC()
+                .connect(JDBC.PREFIX + output.getAbsolutePath(),
+                        new Properties());
+
+        try {
+            final Statement statement = connection.createStatement();
+
+            try {
+                statement.execute("PRAGMA foreign_keys = ON");
+                connection.setAutoCommit(false);
+
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+
+                connection.commit();
+                connection.setAutoCommit(true);
+
+                // Lets SQLiteOpenHelper see that the schema is current
+                statement.execute("PRAGMA user_version = "
+                        + migrations.lastKey());
+
+                statement.execute("VACUUM");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}